@@ -0,0 +1,43 @@
+package org.indigomg;
+
+import com.ggasoftware.indigo.Indigo;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end benchmark of generation for series of elemental compositions of growing size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class GenerationBenchmark {
+
+    @Param({"C3H6", "C6H8", "C3H4O3", "C2H5N1O2", "C7H10", "C8H10O1"})
+    public String composition;
+
+    @Param({"VISITED_SET", "ORDERLY"})
+    public MoleculesGenerator.Engine engine;
+
+    private MoleculesGenerator generator;
+
+    @Setup
+    public void setup() {
+        generator = new MoleculesGenerator(new Indigo());
+        generator.setEngine(engine);
+    }
+
+    @Benchmark
+    public long generateMolecules(Blackhole blackhole) throws FragmentsOverlapException {
+        return generator.generateMolecules(composition, (String) null, blackhole::consume);
+    }
+
+    @Benchmark
+    public long countMolecules() throws FragmentsOverlapException {
+        return generator.countMolecules(composition, null).getTotal();
+    }
+}
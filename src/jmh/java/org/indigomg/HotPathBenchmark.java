@@ -0,0 +1,66 @@
+package org.indigomg;
+
+import com.ggasoftware.indigo.Indigo;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of operations done for each node of search tree.
+ * States are intermediate states of search for C6H8 (disconnected, partially bonded, complete).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HotPathBenchmark {
+
+    @Param({"C.C.C.C.C.C", "CC=C.C.C.C", "C1=CC=CCC1"})
+    public String smiles;
+
+    private Indigo indigo;
+    private MoleculesGenerator generator;
+    private SearchState state;
+    private List<MoleculesGenerator.SD> extensions;
+
+    @Setup
+    public void setup() {
+        indigo = new Indigo();
+        generator = new MoleculesGenerator(indigo);
+        state = SearchState.fromMolecule(indigo.loadMolecule(smiles));
+        extensions = generator.extendMol(state);
+    }
+
+    @Benchmark
+    public Object extendMol() {
+        return generator.extendMol(state);
+    }
+
+    @Benchmark
+    public boolean isSaturated() {
+        return generator.isSaturated(state, 8);
+    }
+
+    @Benchmark
+    public SearchState increaseBondOrder() {
+        SearchState extension = state.copy();
+        if (!extensions.isEmpty()) {
+            MoleculesGenerator.SD sd = extensions.get(0);
+            generator.increaseBondOrder(extension, sd.s, sd.d);
+        }
+        return extension;
+    }
+
+    @Benchmark
+    public String canonicalSmiles() {
+        return generator.canonicalize(state, indigo);
+    }
+
+    @Benchmark
+    public Object javaCanonicalForm() {
+        return new GraphCanonizer(state, null).canonize().certificate;
+    }
+}
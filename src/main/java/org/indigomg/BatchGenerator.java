@@ -0,0 +1,287 @@
+package org.indigomg;
+
+import com.ggasoftware.indigo.Indigo;
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Generation of molecules for a list of elemental compositions in one JVM.
+ * Jobs are run on a pool of worker threads, each worker has its own Indigo instance and generator which are reused
+ * for all jobs taken by the worker. Molecules of each job are written to a separate file or to one combined
+ * file where each molecule is tagged with its composition, or only counted.
+ */
+public class BatchGenerator {
+    private static Logger logger = Logger.getLogger(BatchGenerator.class);
+
+    /**
+     * Name of SDF data item holding elemental composition of molecule in combined output
+     */
+    public static final String FORMULA_TAG = "FORMULA";
+
+    /**
+     * Count of molecules which can wait for writing to output
+     */
+    private static final int WRITER_QUEUE_CAPACITY = 4096;
+
+    /**
+     * Elemental composition with optional fragments
+     */
+    public static class Job {
+        private final String formula;
+        private final String fragments;
+
+        /**
+         * @param formula Elemental composition
+         * @param fragments Fragments (smiles) separated by space, may be null
+         */
+        public Job(String formula, String fragments) {
+            this.formula = formula;
+            this.fragments = fragments;
+        }
+
+        /**
+         * Parse job from line of format: elemental composition followed by fragments, all separated by whitespace.
+         * @param line Line
+         * @return Job or null for empty lines and comments (lines starting with #)
+         */
+        public static Job parse(String line) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                return null;
+            }
+            String[] parts = trimmed.split("\\s+", 2);
+            return new Job(parts[0], parts.length > 1 ? String.join(" ", parts[1].split("\\s+")) : null);
+        }
+
+        public String getFormula() {
+            return formula;
+        }
+
+        public String getFragments() {
+            return fragments;
+        }
+
+        @Override
+        public String toString() {
+            return fragments == null ? formula : formula + " " + fragments;
+        }
+    }
+
+    /**
+     * Outcome of one job
+     */
+    public static class Result {
+        private final Job job;
+        private final long count;
+        private final long millis;
+        private final String error;
+
+        Result(Job job, long count, long millis, String error) {
+            this.job = job;
+            this.count = count;
+            this.millis = millis;
+            this.error = error;
+        }
+
+        public Job getJob() {
+            return job;
+        }
+
+        /**
+         * @return Count of generated molecules
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * @return Description of error if job failed, null otherwise
+         */
+        public String getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return job + ": " + (error != null ? "failed (" + error + ")" : count + " mols") + ", " + millis + " ms";
+        }
+    }
+
+    private final int threads;
+    private Function<Indigo, MoleculesGenerator> generatorFactory = MoleculesGenerator::new;
+
+    /**
+     * @param threads Count of worker threads, each runs one job at a time
+     */
+    public BatchGenerator(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Count of threads should be positive");
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Set factory of generators, e.g. for configuring engine or visited sets. One generator is created for each worker.
+     * @param generatorFactory Factory creating generator using given Indigo instance
+     */
+    public void setGeneratorFactory(Function<Indigo, MoleculesGenerator> generatorFactory) {
+        this.generatorFactory = generatorFactory;
+    }
+
+    /**
+     * Read jobs, one per line, see {@link Job#parse(String)}.
+     * @param reader Reader
+     * @return List of jobs
+     */
+    public static List<Job> readJobs(Reader reader) throws IOException {
+        List<Job> res = new ArrayList<>();
+        BufferedReader in = new BufferedReader(reader);
+        String line;
+        while ((line = in.readLine()) != null) {
+            Job job = Job.parse(line);
+            if (job != null) {
+                res.add(job);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Only count molecules of each job.
+     * @param jobs Jobs
+     * @return Results in order of jobs
+     */
+    public List<Result> count(List<Job> jobs) {
+        return run(jobs, (job, generator) -> generator.countMolecules(job.getFormula(), job.getFragments()).getTotal());
+    }
+
+    /**
+     * Write molecules of each job to separate SDF file named after its composition
+     * (with suffix if the same composition is met several times).
+     * @param jobs Jobs
+     * @param directory Directory of output files, created if it does not exist
+     * @return Results in order of jobs
+     */
+    public List<Result> generateToDirectory(List<Job> jobs, File directory) throws IOException {
+        return generateToDirectory(jobs, directory, ".sdf");
+    }
+
+    /**
+     * Write molecules of each job to separate file named after its composition
+     * (with suffix if the same composition is met several times).
+     * @param jobs Jobs
+     * @param directory Directory of output files, created if it does not exist
+     * @param extension Extension of output files choosing their format and compression
+     *                  as in {@link MoleculeWriter#open(File, int)}, e.g. .smi.gz
+     * @return Results in order of jobs
+     */
+    public List<Result> generateToDirectory(List<Job> jobs, File directory, String extension) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        Map<Job, File> files = new IdentityHashMap<>();
+        Map<String, Integer> used = new HashMap<>();
+        for (Job job : jobs) {
+            int n = used.merge(job.getFormula(), 1, Integer::sum);
+            String name = n == 1 ? job.getFormula() : job.getFormula() + "_" + n;
+            files.put(job, new File(directory, name + extension));
+        }
+        return run(jobs, (job, generator) -> {
+            try (MoleculeWriter writer = MoleculeWriter.open(files.get(job), WRITER_QUEUE_CAPACITY)) {
+                return generator.generateMolecules(job.getFormula(), job.getFragments(), writer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Write molecules of all jobs to one file, its format and compression are chosen by extension
+     * as in {@link MoleculeWriter#open(File, int)}. In SDF each molecule has data item {@link #FORMULA_TAG}
+     * with composition of its job, in smiles formats composition follows smiles separated by space.
+     * Molecules of different jobs are interleaved.
+     * @param jobs Jobs
+     * @param file Output file
+     * @return Results in order of jobs
+     */
+    public List<Result> generateToFile(List<Job> jobs, File file) throws IOException {
+        try (MoleculeWriter writer = MoleculeWriter.open(file, WRITER_QUEUE_CAPACITY)) {
+            return run(jobs, (job, generator) -> generator.generateMolecules(job.getFormula(), job.getFragments(), writer, job.getFormula()));
+        }
+    }
+
+    private interface Task {
+        long run(Job job, MoleculesGenerator generator) throws FragmentsOverlapException;
+    }
+
+    private List<Result> run(List<Job> jobs, Task task) {
+        ThreadLocal<MoleculesGenerator> generators = ThreadLocal.withInitial(() -> generatorFactory.apply(new Indigo()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (Job job : jobs) {
+                futures.add(executor.submit(() -> {
+                    long started = System.currentTimeMillis();
+                    try {
+                        long count = task.run(job, generators.get());
+                        logger.info(job + ": " + count + " mols");
+                        return new Result(job, count, System.currentTimeMillis() - started, null);
+                    } catch (FragmentsOverlapException e) {
+                        throw new IllegalStateException(e);
+                    } catch (RuntimeException e) {
+                        logger.error("Job " + job + " failed", e);
+                        return new Result(job, 0, System.currentTimeMillis() - started, String.valueOf(e.getMessage()));
+                    }
+                }));
+            }
+            List<Result> res = new ArrayList<>();
+            for (Future<Result> future : futures) {
+                res.add(future.get());
+            }
+            return res;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Batch was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Format results as a table with total line.
+     * @param results Results
+     * @return Summary
+     */
+    public static String summary(List<Result> results) {
+        StringBuilder res = new StringBuilder();
+        long count = 0;
+        long millis = 0;
+        int failed = 0;
+        for (Result result : results) {
+            res.append(result).append("\n");
+            count += result.getCount();
+            millis += result.getMillis();
+            if (result.getError() != null) {
+                failed++;
+            }
+        }
+        res.append("Jobs: ").append(results.size()).append(" (").append(failed).append(" failed)")
+                .append(", total mols: ").append(count)
+                .append(", total job time: ").append(millis).append(" ms");
+        return res.toString();
+    }
+}
@@ -0,0 +1,326 @@
+package org.indigomg;
+
+import com.ggasoftware.indigo.Indigo;
+import com.ggasoftware.indigo.IndigoObject;
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Generator remembering generated molecules, so repeated requests for the same composition and fragments
+ * are served without generation. Results are kept as canonical smiles in two tiers: an in-memory LRU tier
+ * and a directory of gzipped files, both limited by size. Key of result is normalized elemental composition
+ * (elements in Hill order with summed counts), sorted canonical smiles of fragments, constraints and shard of generator.
+ * <p>
+ * Each file is stamped with version of valence model ({@link MoleculesGenerator#VALENCES} and allowed valences of
+ * {@link SearchState}), files with another stamp are ignored and removed, so results are regenerated when valence
+ * model changes.
+ * Molecules served from cache are loaded from smiles, so they are the same as generated ones up to atom order.
+ */
+public class CachedMoleculesGenerator {
+    private static Logger logger = Logger.getLogger(CachedMoleculesGenerator.class);
+
+    private static final int FORMAT_VERSION = 1;
+    private static final String SUFFIX = ".smi.gz";
+
+    /**
+     * Approximate count of bytes taken in memory by a string besides its characters
+     */
+    private static final int STRING_OVERHEAD = 48;
+
+    private final MoleculesGenerator generator;
+    private final File directory;
+    private final long maxDiskBytes;
+    private final long maxMemoryBytes;
+    private final String stamp;
+    private final LinkedHashMap<String, List<String>> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param generator Generator used for requests which are not in cache
+     * @param directory Directory of cache files, created if it does not exist
+     * @param maxDiskBytes Maximal total size of cache files, least recently used files are removed when it is exceeded
+     * @param maxMemoryBytes Approximate maximal size of in-memory tier
+     */
+    public CachedMoleculesGenerator(MoleculesGenerator generator, File directory, long maxDiskBytes, long maxMemoryBytes) {
+        this.generator = generator;
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.stamp = valenceModelStamp();
+    }
+
+    /**
+     * Generate all possible molecules with given elemental composition and containing given fragments,
+     * or load them from cache.
+     * @param elementalComposition Elemental composition
+     * @param fragments Fragments separated by space
+     * @return List of possible molecules
+     */
+    public List<IndigoObject> generateMolecules(String elementalComposition, String fragments) throws FragmentsOverlapException, IOException {
+        List<IndigoObject> res = new ArrayList<>();
+        generateMolecules(elementalComposition, fragments, res::add);
+        return res;
+    }
+
+    /**
+     * Generate all possible molecules with given elemental composition and containing given fragments,
+     * or load them from cache, passing each molecule to consumer.
+     * @param elementalComposition Elemental composition
+     * @param fragments Fragments separated by space
+     * @param consumer Consumer receiving molecules
+     * @return Count of molecules
+     */
+    public long generateMolecules(String elementalComposition, String fragments, Consumer<IndigoObject> consumer) throws FragmentsOverlapException, IOException {
+        String key = key(elementalComposition, fragments);
+        List<String> smiles = get(key);
+        Indigo indigo = generator.getIndigo();
+        if (smiles != null) {
+            for (String s : smiles) {
+                consumer.accept(indigo.loadMolecule(s));
+            }
+            return smiles.size();
+        }
+        List<String> generated = new ArrayList<>();
+        long count = generator.generateMolecules(elementalComposition, fragments, mol -> {
+            generated.add(mol.canonicalSmiles());
+            consumer.accept(mol);
+        });
+        put(key, generated);
+        return count;
+    }
+
+    /**
+     * @return Count of requests served from cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return Count of requests which needed generation
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Remove all results from both tiers
+     */
+    public synchronized void clear() throws IOException {
+        memory.clear();
+        memoryBytes = 0;
+        for (File file : cacheFiles()) {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+    /**
+     * @return Key of request: normalized elemental composition, sorted canonical smiles of fragments,
+     * constraints and shard of generator
+     */
+    public String key(String elementalComposition, String fragments) {
+        StringBuilder res = new StringBuilder(normalizeComposition(elementalComposition));
+        if (fragments != null) {
+            List<String> canonical = new ArrayList<>();
+            for (String fragment : fragments.split(" ")) {
+                canonical.add(generator.getIndigo().loadMolecule(fragment).canonicalSmiles());
+            }
+            Collections.sort(canonical);
+            for (String fragment : canonical) {
+                res.append(" ").append(fragment);
+            }
+        }
+        GenerationConstraints constraints = generator.getConstraints();
+        if (constraints != null && !constraints.toString().isEmpty()) {
+            res.append(" | ").append(constraints);
+        }
+        if (generator.getShardCount() > 1) {
+            // Sharded generator gives only a part of molecules
+            res.append(" | shard ").append(generator.getShardIndex()).append('/').append(generator.getShardCount());
+        }
+        return res.toString();
+    }
+
+    /**
+     * Write elemental composition with elements in Hill order (C, H, then alphabetically; alphabetically if there is no C)
+     * and each count given explicitly, e.g. H8C6 and C3H4C3H4 become C6H8.
+     */
+    public static String normalizeComposition(String elementalComposition) {
+        Map<String, Integer> counts = MoleculesGenerator.parseElementalComposition(elementalComposition);
+        boolean hasCarbon = counts.getOrDefault("C", 0) > 0;
+        List<String> elements = new ArrayList<>(counts.keySet());
+        elements.sort((a, b) -> {
+            if (hasCarbon) {
+                int c = Integer.compare(hillRank(a), hillRank(b));
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return a.compareTo(b);
+        });
+        StringBuilder res = new StringBuilder();
+        for (String element : elements) {
+            int count = counts.get(element);
+            if (count > 0) {
+                res.append(element).append(count);
+            }
+        }
+        return res.toString();
+    }
+
+    private static int hillRank(String element) {
+        return element.equals("C") ? 0 : element.equals("H") ? 1 : 2;
+    }
+
+    /**
+     * @return Stamp identifying format of cache files and valence model they were generated with:
+     * maximal valences and allowed valences of elements which have several of them
+     */
+    static String valenceModelStamp() {
+        StringBuilder res = new StringBuilder().append(FORMAT_VERSION).append(":").append(new TreeMap<>(MoleculesGenerator.VALENCES));
+        for (Map.Entry<String, int[]> entry : new TreeMap<>(SearchState.ALLOWED_VALENCES).entrySet()) {
+            res.append(" ").append(entry.getKey()).append(Arrays.toString(entry.getValue()));
+        }
+        return res.toString();
+    }
+
+    private synchronized List<String> get(String key) throws IOException {
+        List<String> res = memory.get(key);
+        if (res == null) {
+            res = readFile(key);
+            if (res != null) {
+                putInMemory(key, res);
+            }
+        }
+        if (res != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return res;
+    }
+
+    private synchronized void put(String key, List<String> smiles) throws IOException {
+        putInMemory(key, smiles);
+        writeFile(key, smiles);
+        evictFiles();
+    }
+
+    private void putInMemory(String key, List<String> smiles) {
+        List<String> previous = memory.put(key, smiles);
+        if (previous != null) {
+            memoryBytes -= weight(key, previous);
+        }
+        memoryBytes += weight(key, smiles);
+        Iterator<Map.Entry<String, List<String>>> eldest = memory.entrySet().iterator();
+        while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+            Map.Entry<String, List<String>> entry = eldest.next();
+            memoryBytes -= weight(entry.getKey(), entry.getValue());
+            eldest.remove();
+        }
+    }
+
+    private static long weight(String key, List<String> smiles) {
+        long res = STRING_OVERHEAD + 2L * key.length();
+        for (String s : smiles) {
+            res += STRING_OVERHEAD + 2L * s.length();
+        }
+        return res;
+    }
+
+    private List<String> readFile(String key) throws IOException {
+        File file = file(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (!in.readUTF().equals(stamp)) {
+                logger.info("Removing cache file of another valence model: " + file);
+                in.close();
+                Files.deleteIfExists(file.toPath());
+                return null;
+            }
+            if (!in.readUTF().equals(key)) {
+                // Collision of digests, the file belongs to another request
+                return null;
+            }
+            int count = in.readInt();
+            List<String> res = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                res.add(in.readUTF());
+            }
+            if (!file.setLastModified(System.currentTimeMillis())) {
+                logger.debug("Could not update access time of " + file);
+            }
+            return res;
+        }
+    }
+
+    private void writeFile(String key, List<String> smiles) throws IOException {
+        Files.createDirectories(directory.toPath());
+        File file = file(key);
+        File tmp = new File(directory, file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))))) {
+            out.writeUTF(stamp);
+            out.writeUTF(key);
+            out.writeInt(smiles.size());
+            for (String s : smiles) {
+                out.writeUTF(s);
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Remove least recently used files until total size of files is within limit
+     */
+    private void evictFiles() throws IOException {
+        File[] files = cacheFiles();
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= maxDiskBytes) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (total <= maxDiskBytes) {
+                break;
+            }
+            total -= file.length();
+            Files.deleteIfExists(file.toPath());
+            logger.debug("Evicted cache file " + file);
+        }
+    }
+
+    private File[] cacheFiles() {
+        File[] res = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        return res != null ? res : new File[0];
+    }
+
+    private File file(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                name.append(String.format("%02x", digest[i]));
+            }
+            return new File(directory, name + SUFFIX);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
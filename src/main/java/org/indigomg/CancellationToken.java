@@ -0,0 +1,17 @@
+package org.indigomg;
+
+/**
+ * Flag which can be set from any thread to stop generation runs using it (see {@link GenerationOptions}).
+ * Runs check the flag between expansions of states, so they stop shortly after cancellation.
+ */
+public class CancellationToken {
+    private volatile boolean cancelled;
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,201 @@
+package org.indigomg;
+
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.function.LongSupplier;
+
+/**
+ * Periodically saved state of a generation run, which allows resuming the run after it was interrupted.
+ * Checkpoint contains the frontier of search (states which are not expanded yet), the visited set,
+ * molecules accepted in orderly mode with fragments, count of generated molecules and position in output
+ * reached by the moment of saving. Checkpoint is kept in a single file in given directory, the file is replaced
+ * atomically on each save and deleted when generation completes.
+ * <p>
+ * When the run is resumed, output should be truncated to {@link #getOutputPosition()}: molecules generated after
+ * the last save are generated again.
+ */
+public class Checkpoint {
+    private static Logger logger = Logger.getLogger(Checkpoint.class);
+
+    private static final String FILE_NAME = "checkpoint.bin";
+    private static final int MAGIC = 0x494d4743;
+    private static final int VERSION = 1;
+
+    /**
+     * State waiting for expansion, the arguments of one call of generateMol
+     */
+    static final class Node {
+        final SearchState state;
+        final boolean extraAtoms;
+        final int depth;
+
+        Node(SearchState state, boolean extraAtoms, int depth) {
+            this.state = state;
+            this.extraAtoms = extraAtoms;
+            this.depth = depth;
+        }
+    }
+
+    private final File file;
+    private final long periodMillis;
+    private LongSupplier outputPositionSupplier;
+
+    /**
+     * @param directory Directory where checkpoint is kept, created if it does not exist
+     * @param periodMillis Minimal time between two saves in milliseconds
+     */
+    public Checkpoint(File directory, long periodMillis) {
+        this.file = new File(directory, FILE_NAME);
+        this.periodMillis = periodMillis;
+    }
+
+    /**
+     * Set supplier of current position in output (e.g. count of bytes written to file), it is called on each save
+     * and should flush the output. If it is not set, count of generated molecules is used as output position.
+     * @param outputPositionSupplier Supplier of position in output
+     */
+    public void setOutputPositionSupplier(LongSupplier outputPositionSupplier) {
+        this.outputPositionSupplier = outputPositionSupplier;
+    }
+
+    public long getPeriodMillis() {
+        return periodMillis;
+    }
+
+    /**
+     * @return True iff there is a saved checkpoint, i.e. generation should be resumed
+     */
+    public boolean exists() {
+        return file.isFile();
+    }
+
+    /**
+     * @return Count of molecules generated by the moment of the last save
+     * @throws IOException If checkpoint can not be read
+     */
+    public long getMoleculesCount() throws IOException {
+        try (DataInputStream in = open()) {
+            return in.readLong();
+        }
+    }
+
+    /**
+     * @return Position in output reached by the moment of the last save
+     * @throws IOException If checkpoint can not be read
+     */
+    public long getOutputPosition() throws IOException {
+        try (DataInputStream in = open()) {
+            in.readLong();
+            return in.readLong();
+        }
+    }
+
+    /**
+     * Remove saved checkpoint
+     * @throws IOException If file can not be deleted
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    void save(String engine, int nH, SearchState root, long count, Deque<Node> frontier,
+              VisitedSet visited, Collection<GraphCanonizer.Certificate> accepted) throws IOException {
+        long outputPosition = outputPositionSupplier != null ? outputPositionSupplier.getAsLong() : count;
+        File directory = file.getAbsoluteFile().getParentFile();
+        Files.createDirectories(directory.toPath());
+        File tmp = new File(directory, FILE_NAME + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(count);
+            out.writeLong(outputPosition);
+            out.writeUTF(engine);
+            out.writeInt(nH);
+            root.writeTo(out);
+            out.writeInt(frontier.size());
+            for (Node node : frontier) {
+                node.state.writeTo(out);
+                out.writeBoolean(node.extraAtoms);
+                out.writeInt(node.depth);
+            }
+            out.writeBoolean(visited != null);
+            if (visited != null) {
+                visited.writeTo(out);
+            }
+            out.writeInt(accepted != null ? accepted.size() : 0);
+            if (accepted != null) {
+                for (GraphCanonizer.Certificate certificate : accepted) {
+                    certificate.writeTo(out);
+                }
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.debug("Checkpoint saved: " + count + " molecules, " + frontier.size() + " states in frontier");
+    }
+
+    /**
+     * Restore saved search into given (empty) frontier, visited set and set of accepted molecules.
+     * @return Count of molecules generated by the moment of the save
+     * @throws IOException If checkpoint can not be read or was saved for another generation task
+     */
+    long restore(String engine, int nH, SearchState root, Deque<Node> frontier,
+                 VisitedSet visited, Collection<GraphCanonizer.Certificate> accepted) throws IOException {
+        try (DataInputStream in = open()) {
+            long count = in.readLong();
+            in.readLong();
+            String savedEngine = in.readUTF();
+            int savedNH = in.readInt();
+            SearchState savedRoot = SearchState.readFrom(in);
+            if (!savedEngine.equals(engine) || savedNH != nH || !sameStates(savedRoot, root)) {
+                throw new IOException("Checkpoint " + file + " was saved for another generation task");
+            }
+            int frontierSize = in.readInt();
+            for (int i = 0; i < frontierSize; i++) {
+                SearchState state = SearchState.readFrom(in);
+                boolean extraAtoms = in.readBoolean();
+                int depth = in.readInt();
+                frontier.addLast(new Node(state, extraAtoms, depth));
+            }
+            if (in.readBoolean()) {
+                visited.readFrom(in);
+            }
+            int acceptedSize = in.readInt();
+            for (int i = 0; i < acceptedSize; i++) {
+                accepted.add(GraphCanonizer.Certificate.readFrom(in));
+            }
+            return count;
+        }
+    }
+
+    private DataInputStream open() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            in.close();
+            throw new IOException(file + " is not a checkpoint of this version");
+        }
+        return in;
+    }
+
+    private static boolean sameStates(SearchState a, SearchState b) {
+        int n = a.countAtoms();
+        if (n != b.countAtoms()) {
+            return false;
+        }
+        for (int i = 0; i < n; i++) {
+            if (a.element(i) != b.element(i)) {
+                return false;
+            }
+            for (int j = i + 1; j < n; j++) {
+                if (a.bondOrder(i, j) != b.bondOrder(i, j)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,41 @@
+package org.indigomg;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Visited set keeping full canonical forms of states. Uses a lot of memory, but is exact,
+ * so it can be used for verification of hashed sets.
+ */
+public class ExactVisitedSet implements VisitedSet {
+    private final Set<String> states = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public boolean add(String canonicalForm) {
+        return states.add(canonicalForm);
+    }
+
+    @Override
+    public long size() {
+        return states.size();
+    }
+
+    @Override
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeLong(states.size());
+        for (String state : states) {
+            out.writeUTF(state);
+        }
+    }
+
+    @Override
+    public void readFrom(DataInput in) throws IOException {
+        long size = in.readLong();
+        for (long i = 0; i < size; i++) {
+            states.add(in.readUTF());
+        }
+    }
+}
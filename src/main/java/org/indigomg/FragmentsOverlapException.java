@@ -2,6 +2,10 @@ package org.indigomg;
 
 /**
  * Created by Artem Malykh on 22.09.15.
+ *
+ * @deprecated Overlapping fragments are supported, so the exception is never thrown. It is kept for source
+ * compatibility of callers catching it.
  */
+@Deprecated
 public class FragmentsOverlapException extends Throwable {
 }
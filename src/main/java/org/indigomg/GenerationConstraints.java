@@ -0,0 +1,232 @@
+package org.indigomg;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Structural constraints which generated molecules should satisfy: maximal bond order for pairs of elements
+ * (order 0 forbids bonds between elements), minimal ring size, maximal count of rings and maximal
+ * double bond equivalent (rings plus pi bonds).
+ * <p>
+ * Constraints are checked for each extension during search. Adding bonds never makes a violated constraint satisfied
+ * again, so the whole subtree of a violating state is cut off, and molecules generated with constraints are exactly
+ * the molecules generated without them which satisfy constraints.
+ * <p>
+ * Constraints can also be given as text (see {@link #parse(String)}), e.g.
+ * {@code maxBondOrder=2 forbid(O,O) forbid(N,N) minRingSize=5 maxRings=1 maxDbe=3}.
+ */
+public class GenerationConstraints {
+    private static final Pattern ITEM = Pattern.compile("(\\w+)(?:\\((\\w+),(\\w+)\\))?(?:=(\\d+))?");
+
+    private final int[][] maxBondOrders;
+    private int minRingSize;
+    private int maxRings = -1;
+    private int maxDbe = -1;
+
+    public GenerationConstraints() {
+        int count = SearchState.SYMBOLS.length;
+        maxBondOrders = new int[count][count];
+        for (int[] row : maxBondOrders) {
+            Arrays.fill(row, SearchState.MAX_BOND_ORDER);
+        }
+    }
+
+    /**
+     * Parse constraints given as items separated by whitespace: {@code maxBondOrder=<order>},
+     * {@code maxBondOrder(<element>,<element>)=<order>}, {@code forbid(<element>,<element>)},
+     * {@code minRingSize=<size>}, {@code maxRings=<count>}, {@code maxDbe=<count>}.
+     * @param text Constraints
+     * @return Constraints
+     * @throws IllegalArgumentException If text can not be parsed
+     */
+    public static GenerationConstraints parse(String text) {
+        GenerationConstraints res = new GenerationConstraints();
+        for (String item : text.trim().split("\\s+")) {
+            if (item.isEmpty()) {
+                continue;
+            }
+            Matcher m = ITEM.matcher(item);
+            if (!m.matches()) {
+                throw new IllegalArgumentException("Bad constraint: " + item);
+            }
+            String name = m.group(1);
+            boolean pair = m.group(2) != null;
+            String value = m.group(4);
+            if (name.equals("forbid") && pair && value == null) {
+                res.forbidBond(m.group(2), m.group(3));
+                continue;
+            }
+            if (value == null) {
+                throw new IllegalArgumentException("No value of constraint: " + item);
+            }
+            int number = Integer.parseInt(value);
+            if (name.equals("maxBondOrder") && pair) {
+                res.setMaxBondOrder(m.group(2), m.group(3), number);
+            } else if (pair) {
+                throw new IllegalArgumentException("Unknown constraint: " + item);
+            } else if (name.equals("maxBondOrder")) {
+                res.setMaxBondOrder(number);
+            } else if (name.equals("minRingSize")) {
+                res.setMinRingSize(number);
+            } else if (name.equals("maxRings")) {
+                res.setMaxRings(number);
+            } else if (name.equals("maxDbe")) {
+                res.setMaxDbe(number);
+            } else {
+                throw new IllegalArgumentException("Unknown constraint: " + item);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Limit order of all bonds, e.g. 2 excludes triple bonds.
+     * Limits given for pairs of elements are kept if they are lower.
+     * @param order Maximal bond order
+     */
+    public void setMaxBondOrder(int order) {
+        checkOrder(order);
+        for (int[] row : maxBondOrders) {
+            for (int j = 0; j < row.length; j++) {
+                row[j] = Math.min(row[j], order);
+            }
+        }
+    }
+
+    /**
+     * Limit order of bonds between atoms of two elements
+     * @param first Symbol of element
+     * @param second Symbol of element
+     * @param order Maximal bond order, 0 forbids bonds
+     */
+    public void setMaxBondOrder(String first, String second, int order) {
+        checkOrder(order);
+        int a = SearchState.elementCode(first);
+        int b = SearchState.elementCode(second);
+        maxBondOrders[a][b] = order;
+        maxBondOrders[b][a] = order;
+    }
+
+    /**
+     * Forbid bonds between atoms of two elements, e.g. O and O for peroxides
+     * @param first Symbol of element
+     * @param second Symbol of element
+     */
+    public void forbidBond(String first, String second) {
+        setMaxBondOrder(first, second, 0);
+    }
+
+    /**
+     * @param size Minimal count of atoms in each ring, e.g. 5 excludes three- and four-membered rings
+     */
+    public void setMinRingSize(int size) {
+        this.minRingSize = size;
+    }
+
+    /**
+     * @param rings Maximal count of rings (cyclomatic number)
+     */
+    public void setMaxRings(int rings) {
+        this.maxRings = rings;
+    }
+
+    /**
+     * @param dbe Maximal double bond equivalent: count of rings plus count of pi bonds
+     *            (a double bond has one, a triple bond two)
+     */
+    public void setMaxDbe(int dbe) {
+        this.maxDbe = dbe;
+    }
+
+    private static void checkOrder(int order) {
+        if (order < 0 || order > SearchState.MAX_BOND_ORDER) {
+            throw new IllegalArgumentException("Bond order should be from 0 to " + SearchState.MAX_BOND_ORDER);
+        }
+    }
+
+    /**
+     * Check state obtained by increasing order of bond between two atoms, whose parent satisfied constraints
+     * @return False iff state violates constraints
+     */
+    boolean allows(SearchState state, int source, int dest) {
+        int order = state.bondOrder(source, dest);
+        if (order > maxBondOrders[state.element(source)][state.element(dest)]) {
+            return false;
+        }
+        if (maxDbe >= 0 && dbe(state) > maxDbe) {
+            return false;
+        }
+        if (order == 1 && (minRingSize > 0 || maxRings >= 0)) {
+            // New bond closes a ring iff its atoms were already connected
+            int limit = minRingSize > 0 && maxRings < 0 ? minRingSize - 2 : state.countAtoms();
+            int path = state.shortestPath(source, dest, limit);
+            if (path >= 0) {
+                if (path + 1 < minRingSize) {
+                    return false;
+                }
+                if (maxRings >= 0 && state.countRings() > maxRings) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check all bonds of state, used for initial state of search
+     * @return False iff state violates constraints
+     */
+    boolean allows(SearchState state) {
+        int n = state.countAtoms();
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                int order = state.bondOrder(i, j);
+                if (order == 0) continue;
+                if (order > maxBondOrders[state.element(i)][state.element(j)]) {
+                    return false;
+                }
+                int path = minRingSize > 0 ? state.shortestPath(i, j, minRingSize - 2) : -1;
+                if (path >= 0 && path + 1 < minRingSize) {
+                    return false;
+                }
+            }
+        }
+        return (maxRings < 0 || state.countRings() <= maxRings) && (maxDbe < 0 || dbe(state) <= maxDbe);
+    }
+
+    /**
+     * Double bond equivalent of connected molecule with bonds of state. Bond order sum minus count of bonds is count
+     * of pi bonds, count of bonds minus count of atoms plus one is count of rings.
+     */
+    private static int dbe(SearchState state) {
+        return state.bondOrderSum() - state.countAtoms() + 1;
+    }
+
+    /**
+     * @return Constraints in the form accepted by {@link #parse(String)}, equal constraints give equal strings
+     */
+    @Override
+    public String toString() {
+        StringBuilder res = new StringBuilder();
+        String[] symbols = SearchState.SYMBOLS;
+        for (int a = 0; a < symbols.length; a++) {
+            for (int b = a; b < symbols.length; b++) {
+                if (maxBondOrders[a][b] < SearchState.MAX_BOND_ORDER) {
+                    res.append(" maxBondOrder(").append(symbols[a]).append(',').append(symbols[b]).append(")=")
+                            .append(maxBondOrders[a][b]);
+                }
+            }
+        }
+        if (minRingSize > 0) {
+            res.append(" minRingSize=").append(minRingSize);
+        }
+        if (maxRings >= 0) {
+            res.append(" maxRings=").append(maxRings);
+        }
+        if (maxDbe >= 0) {
+            res.append(" maxDbe=").append(maxDbe);
+        }
+        return res.toString().trim();
+    }
+}
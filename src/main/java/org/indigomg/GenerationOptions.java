@@ -0,0 +1,63 @@
+package org.indigomg;
+
+/**
+ * Limits of one generation run. When any limit is reached, search stops and molecules generated so far
+ * are returned as {@link GenerationResult} marked as incomplete. Zero means no limit.
+ */
+public class GenerationOptions {
+    private long maxMillis;
+    private long maxNodes;
+    private long maxResults;
+    private CancellationToken cancellationToken;
+
+    /**
+     * @param maxMillis Maximal wall time of run in milliseconds
+     */
+    public void setMaxMillis(long maxMillis) {
+        this.maxMillis = checkLimit(maxMillis);
+    }
+
+    public long getMaxMillis() {
+        return maxMillis;
+    }
+
+    /**
+     * @param maxNodes Maximal count of expanded states of search
+     */
+    public void setMaxNodes(long maxNodes) {
+        this.maxNodes = checkLimit(maxNodes);
+    }
+
+    public long getMaxNodes() {
+        return maxNodes;
+    }
+
+    /**
+     * @param maxResults Maximal count of generated molecules
+     */
+    public void setMaxResults(long maxResults) {
+        this.maxResults = checkLimit(maxResults);
+    }
+
+    public long getMaxResults() {
+        return maxResults;
+    }
+
+    /**
+     * @param cancellationToken Token stopping run when cancelled, may be null
+     */
+    public void setCancellationToken(CancellationToken cancellationToken) {
+        this.cancellationToken = cancellationToken;
+    }
+
+    public CancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
+
+    private static long checkLimit(long limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit should not be negative");
+        }
+        return limit;
+    }
+}
@@ -0,0 +1,61 @@
+package org.indigomg;
+
+import com.ggasoftware.indigo.IndigoObject;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of generation run with {@link GenerationOptions}: generated molecules and whether all molecules
+ * were generated or the run was stopped by a limit.
+ */
+public class GenerationResult {
+
+    /**
+     * Reason of stopping the run before all molecules were generated
+     */
+    public enum StopReason {
+        TIME_LIMIT,
+        NODES_LIMIT,
+        RESULTS_LIMIT,
+        CANCELLED
+    }
+
+    private final List<IndigoObject> molecules;
+    private final long count;
+    private final StopReason stopReason;
+
+    GenerationResult(List<IndigoObject> molecules, long count, StopReason stopReason) {
+        this.molecules = molecules;
+        this.count = count;
+        this.stopReason = stopReason;
+    }
+
+    /**
+     * @return Generated molecules, empty if they were passed to consumer
+     */
+    public List<IndigoObject> getMolecules() {
+        return molecules != null ? molecules : Collections.emptyList();
+    }
+
+    /**
+     * @return Count of generated molecules
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return True iff search finished and all molecules were generated
+     */
+    public boolean isComplete() {
+        return stopReason == null;
+    }
+
+    /**
+     * @return Reason of stopping, null if search finished
+     */
+    public StopReason getStopReason() {
+        return stopReason;
+    }
+}
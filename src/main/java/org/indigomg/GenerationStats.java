@@ -0,0 +1,193 @@
+package org.indigomg;
+
+import org.apache.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of generation runs. Set to generator with {@link MoleculesGenerator#setStats(GenerationStats)},
+ * then can be read live, exposed through JMX or logged periodically.
+ * Without stats set generator does not count anything.
+ */
+public class GenerationStats implements GenerationStatsMBean {
+    private static Logger logger = Logger.getLogger(GenerationStats.class);
+
+    final LongAdder nodesExpanded = new LongAdder();
+    final LongAdder extensions = new LongAdder();
+    final LongAdder duplicates = new LongAdder();
+    final LongAdder pruned = new LongAdder();
+    final LongAdder canonicalizations = new LongAdder();
+    final LongAdder clones = new LongAdder();
+    final LongAdder acceptedMolecules = new LongAdder();
+    final LongAdder canonicalizationNanos = new LongAdder();
+    final LongAdder saturationCheckNanos = new LongAdder();
+    private volatile int currentDepth;
+    private volatile int maxDepth;
+    private volatile VisitedSet visitedSet;
+
+    private ScheduledExecutorService loggingExecutor;
+
+    void depth(int depth) {
+        currentDepth = depth;
+        if (depth > maxDepth) {
+            maxDepth = depth;
+        }
+    }
+
+    void visitedSet(VisitedSet visitedSet) {
+        this.visitedSet = visitedSet;
+    }
+
+    /**
+     * @return Count of search states processed
+     */
+    @Override
+    public long getNodesExpanded() {
+        return nodesExpanded.sum();
+    }
+
+    /**
+     * @return Count of extensions proposed for processed states
+     */
+    @Override
+    public long getExtensions() {
+        return extensions.sum();
+    }
+
+    /**
+     * @return Count of extensions rejected as already visited (or as not canonical in orderly mode)
+     */
+    @Override
+    public long getDuplicates() {
+        return duplicates.sum();
+    }
+
+    /**
+     * @return Count of extensions rejected because no molecule can be obtained from them
+     */
+    @Override
+    public long getPruned() {
+        return pruned.sum();
+    }
+
+    @Override
+    public long getCanonicalizations() {
+        return canonicalizations.sum();
+    }
+
+    /**
+     * @return Count of copies of search states
+     */
+    @Override
+    public long getClones() {
+        return clones.sum();
+    }
+
+    @Override
+    public long getAcceptedMolecules() {
+        return acceptedMolecules.sum();
+    }
+
+    @Override
+    public long getCanonicalizationMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(canonicalizationNanos.sum());
+    }
+
+    @Override
+    public long getSaturationCheckMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(saturationCheckNanos.sum());
+    }
+
+    /**
+     * @return Depth of the last processed state (in parallel mode depth of one of the workers)
+     */
+    @Override
+    public int getCurrentDepth() {
+        return currentDepth;
+    }
+
+    @Override
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return Size of visited set of current run, 0 if it is not used
+     */
+    @Override
+    public long getVisitedSetSize() {
+        VisitedSet set = visitedSet;
+        return set == null ? 0 : set.size();
+    }
+
+    @Override
+    public void reset() {
+        nodesExpanded.reset();
+        extensions.reset();
+        duplicates.reset();
+        pruned.reset();
+        canonicalizations.reset();
+        clones.reset();
+        acceptedMolecules.reset();
+        canonicalizationNanos.reset();
+        saturationCheckNanos.reset();
+        currentDepth = 0;
+        maxDepth = 0;
+        visitedSet = null;
+    }
+
+    /**
+     * Register stats as MBean in platform MBean server.
+     * @param name Value of name key of object name
+     * @return Object name under which stats are registered
+     */
+    public ObjectName registerMBean(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = new ObjectName("org.indigomg:type=GenerationStats,name=" + ObjectName.quote(name));
+        server.registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * Start logging stats with given period in a background thread.
+     * @param periodMillis Period in milliseconds
+     */
+    public synchronized void startLogging(long periodMillis) {
+        stopLogging();
+        loggingExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "generation-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        loggingExecutor.scheduleAtFixedRate(() -> logger.info(this), periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopLogging() {
+        if (loggingExecutor != null) {
+            loggingExecutor.shutdownNow();
+            loggingExecutor = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "nodes: " + getNodesExpanded() +
+                ", extensions: " + getExtensions() +
+                ", duplicates: " + getDuplicates() +
+                ", pruned: " + getPruned() +
+                ", canonicalizations: " + getCanonicalizations() +
+                " (" + getCanonicalizationMillis() + " ms)" +
+                ", saturation checks: " + getSaturationCheckMillis() + " ms" +
+                ", clones: " + getClones() +
+                ", accepted: " + getAcceptedMolecules() +
+                ", depth: " + getCurrentDepth() + " (max " + getMaxDepth() + ")" +
+                ", visited: " + getVisitedSetSize();
+    }
+}
@@ -0,0 +1,32 @@
+package org.indigomg;
+
+/**
+ * JMX view of {@link GenerationStats}
+ */
+public interface GenerationStatsMBean {
+    long getNodesExpanded();
+
+    long getExtensions();
+
+    long getDuplicates();
+
+    long getPruned();
+
+    long getCanonicalizations();
+
+    long getClones();
+
+    long getAcceptedMolecules();
+
+    long getCanonicalizationMillis();
+
+    long getSaturationCheckMillis();
+
+    int getCurrentDepth();
+
+    int getMaxDepth();
+
+    long getVisitedSetSize();
+
+    void reset();
+}
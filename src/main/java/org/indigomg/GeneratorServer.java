@@ -0,0 +1,395 @@
+package org.indigomg;
+
+import com.ggasoftware.indigo.Indigo;
+import com.ggasoftware.indigo.IndigoObject;
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Function;
+
+/**
+ * Long-running generator serving requests sent as JSON lines, so callers do not pay for JVM startup and JIT warm-up
+ * on each request. Requests are taken from a bounded queue by worker threads, each worker has its own Indigo instance
+ * and generator which are warmed up on start and reused for all requests.
+ * <p>
+ * Request is a JSON object on one line:
+ * <pre>
+ * {"id": "1", "formula": "C6H8", "fragments": "C=O", "format": "smiles", "maxMillis": 1000, "maxNodes": 100000, "maxResults": 100}
+ * </pre>
+ * Only formula is required. Fragments are smiles separated by space or an array of smiles. Format of molecules
+ * is smiles (default), can (canonical smiles) or molfile. Limits are described in {@link GenerationOptions},
+ * optional "constraints" are given as text parsed by {@link GenerationConstraints#parse(String)}; requests without them
+ * use constraints of generators created by factory of server.
+ * <p>
+ * Responses are JSON lines tagged with id of request: one line per molecule as soon as it is generated
+ * ({"id": "1", "molecule": "C=CC=CC=C"}), then a final line ({"id": "1", "done": true, "count": 159, "complete": true},
+ * with "stopReason" if a limit was reached) or an error line ({"id": "1", "error": "..."}).
+ * Responses of different requests of one connection may be interleaved.
+ * <p>
+ * When the queue is full, reading of requests from connection waits until a worker takes a request, and a worker
+ * writing to connection which is not read waits too, so fast clients can not exhaust memory of server.
+ * Requests of a connection which is closed are cancelled.
+ */
+public class GeneratorServer implements AutoCloseable {
+    private static Logger logger = Logger.getLogger(GeneratorServer.class);
+
+    /**
+     * Composition generated by each worker on start, so hot code is compiled before the first request
+     */
+    private static final String WARM_UP_FORMULA = "C6H8";
+
+    /**
+     * Count of molecule lines written between two flushes of connection
+     */
+    private static final int FLUSH_LINES = 64;
+
+    /**
+     * Format of molecules in responses
+     */
+    public enum Format {
+        SMILES,
+        CANONICAL_SMILES,
+        MOLFILE;
+
+        static Format parse(String name) {
+            switch (name) {
+                case "smiles":
+                    return SMILES;
+                case "can":
+                    return CANONICAL_SMILES;
+                case "molfile":
+                    return MOLFILE;
+                default:
+                    throw new IllegalArgumentException("Unknown format: " + name);
+            }
+        }
+
+        String format(IndigoObject mol) {
+            switch (this) {
+                case SMILES:
+                    return mol.smiles();
+                case CANONICAL_SMILES:
+                    return mol.canonicalSmiles();
+                default:
+                    return mol.molfile();
+            }
+        }
+    }
+
+    private final BlockingQueue<Request> queue;
+    private final List<Thread> workers = new ArrayList<>();
+    private final Function<Indigo, MoleculesGenerator> generatorFactory;
+    private volatile boolean closed;
+
+    /**
+     * @param workers Count of worker threads
+     * @param queueCapacity Count of requests which can wait for a worker
+     */
+    public GeneratorServer(int workers, int queueCapacity) {
+        this(workers, queueCapacity, MoleculesGenerator::new);
+    }
+
+    /**
+     * @param workers Count of worker threads
+     * @param queueCapacity Count of requests which can wait for a worker
+     * @param generatorFactory Factory creating generator of each worker using given Indigo instance,
+     *                         its constraints are used for requests which do not give their own
+     */
+    public GeneratorServer(int workers, int queueCapacity, Function<Indigo, MoleculesGenerator> generatorFactory) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Count of workers should be positive");
+        }
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.generatorFactory = generatorFactory;
+        for (int i = 0; i < workers; i++) {
+            Thread worker = new Thread(this::work, "generator-worker-" + i);
+            worker.setDaemon(true);
+            this.workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Accept connections until server socket or server is closed, each connection is served in its own thread.
+     * @param serverSocket Bound server socket
+     */
+    public void listen(ServerSocket serverSocket) throws IOException {
+        logger.info("Listening on " + serverSocket.getLocalSocketAddress());
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                if (closed || serverSocket.isClosed()) {
+                    return;
+                }
+                throw e;
+            }
+            Thread thread = new Thread(() -> handle(socket), "generator-connection-" + socket.getPort());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket) {
+            serve(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8),
+                    new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            logger.warn("Connection " + socket.getRemoteSocketAddress() + " failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Serve requests read from one connection until its end, waiting until responses to all requests are written.
+     * @param in Requests, one per line
+     * @param out Responses
+     */
+    public void serve(Reader in, Writer out) throws IOException {
+        Connection connection = new Connection(out);
+        BufferedReader reader = new BufferedReader(in);
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                Request request;
+                String id = null;
+                try {
+                    Map<String, Object> json = Json.parseObject(line);
+                    id = idOf(json);
+                    request = parse(json, id, connection);
+                } catch (IllegalArgumentException e) {
+                    connection.send(errorLine(id, e.getMessage()), true);
+                    continue;
+                }
+                if (closed) {
+                    connection.send(errorLine(id, "server is closed"), true);
+                    continue;
+                }
+                connection.started();
+                try {
+                    queue.put(request);
+                } catch (InterruptedException e) {
+                    connection.finished();
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for queue");
+                }
+            }
+        } finally {
+            if (connection.awaitRequests()) {
+                connection.flush();
+            }
+        }
+    }
+
+    /**
+     * Stop workers. Requests which are being served are finished, requests which wait in queue get error responses.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        List<Request> waiting = new ArrayList<>();
+        queue.drainTo(waiting);
+        for (Request request : waiting) {
+            request.connection.send(errorLine(request.id, "server is closed"), true);
+            request.connection.finished();
+        }
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    private void work() {
+        MoleculesGenerator generator = generatorFactory.apply(new Indigo());
+        try {
+            generator.countMolecules(WARM_UP_FORMULA, null);
+        } catch (FragmentsOverlapException e) {
+            throw new IllegalStateException(e);
+        }
+        GenerationConstraints defaultConstraints = generator.getConstraints();
+        logger.debug(Thread.currentThread().getName() + " is ready");
+        while (!closed) {
+            Request request;
+            try {
+                request = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            process(generator, request, defaultConstraints);
+        }
+    }
+
+    private void process(MoleculesGenerator generator, Request request, GenerationConstraints defaultConstraints) {
+        Connection connection = request.connection;
+        String id = request.id;
+        try {
+            generator.setConstraints(request.constraints != null ? request.constraints : defaultConstraints);
+            GenerationResult result = generator.generateMolecules(request.formula, request.fragments,
+                    mol -> connection.send("{\"id\":" + quote(id) + ",\"molecule\":" + Json.quote(request.format.format(mol)) + "}", false),
+                    request.options);
+            StringBuilder done = new StringBuilder("{\"id\":").append(quote(id))
+                    .append(",\"done\":true,\"count\":").append(result.getCount())
+                    .append(",\"complete\":").append(result.isComplete());
+            if (!result.isComplete()) {
+                done.append(",\"stopReason\":").append(Json.quote(result.getStopReason().name()));
+            }
+            connection.send(done.append("}").toString(), true);
+        } catch (FragmentsOverlapException e) {
+            throw new IllegalStateException(e);
+        } catch (RuntimeException e) {
+            logger.error("Request " + id + " failed", e);
+            connection.send(errorLine(id, String.valueOf(e.getMessage())), true);
+        } finally {
+            connection.finished();
+        }
+    }
+
+    private static String idOf(Map<String, Object> json) {
+        Object id = json.get("id");
+        return id == null ? null : String.valueOf(id);
+    }
+
+    private static Request parse(Map<String, Object> json, String id, Connection connection) {
+        Object formula = json.get("formula");
+        if (!(formula instanceof String)) {
+            throw new IllegalArgumentException("No formula provided");
+        }
+        Object fragments = json.get("fragments");
+        String fragmentsString = null;
+        if (fragments instanceof List) {
+            List<String> smiles = new ArrayList<>();
+            for (Object fragment : (List<?>) fragments) {
+                smiles.add(String.valueOf(fragment));
+            }
+            fragmentsString = smiles.isEmpty() ? null : String.join(" ", smiles);
+        } else if (fragments != null) {
+            fragmentsString = String.valueOf(fragments);
+        }
+        Object format = json.get("format");
+        Object constraints = json.get("constraints");
+        GenerationOptions options = new GenerationOptions();
+        options.setMaxMillis(limit(json, "maxMillis"));
+        options.setMaxNodes(limit(json, "maxNodes"));
+        options.setMaxResults(limit(json, "maxResults"));
+        options.setCancellationToken(connection.token);
+        return new Request(connection, id, (String) formula, fragmentsString,
+                format == null ? Format.SMILES : Format.parse(String.valueOf(format)), options,
+                constraints == null ? null : GenerationConstraints.parse(String.valueOf(constraints)));
+    }
+
+    private static long limit(Map<String, Object> json, String name) {
+        Object value = json.get(name);
+        if (value == null) {
+            return 0;
+        }
+        if (!(value instanceof Long)) {
+            throw new IllegalArgumentException(name + " should be an integer");
+        }
+        return (Long) value;
+    }
+
+    private static String errorLine(String id, String message) {
+        return "{\"id\":" + quote(id) + ",\"error\":" + Json.quote(String.valueOf(message)) + "}";
+    }
+
+    private static String quote(String id) {
+        return id == null ? "null" : Json.quote(id);
+    }
+
+    private static class Request {
+        final Connection connection;
+        final String id;
+        final String formula;
+        final String fragments;
+        final Format format;
+        final GenerationOptions options;
+        final GenerationConstraints constraints;
+
+        Request(Connection connection, String id, String formula, String fragments, Format format, GenerationOptions options,
+                GenerationConstraints constraints) {
+            this.connection = connection;
+            this.id = id;
+            this.formula = formula;
+            this.fragments = fragments;
+            this.format = format;
+            this.options = options;
+            this.constraints = constraints;
+        }
+    }
+
+    /**
+     * Output of one client shared by workers serving its requests
+     */
+    private static class Connection {
+        final Writer out;
+        final CancellationToken token = new CancellationToken();
+        private int pending;
+        private int unflushed;
+        private boolean failed;
+
+        Connection(Writer out) {
+            this.out = new BufferedWriter(out);
+        }
+
+        synchronized void send(String line, boolean flush) {
+            if (failed) {
+                return;
+            }
+            try {
+                out.write(line);
+                out.write('\n');
+                if (flush || ++unflushed >= FLUSH_LINES) {
+                    out.flush();
+                    unflushed = 0;
+                }
+            } catch (IOException e) {
+                // Client is gone, its requests are not needed any more
+                failed = true;
+                token.cancel();
+            }
+        }
+
+        synchronized void flush() throws IOException {
+            if (!failed) {
+                out.flush();
+            }
+        }
+
+        synchronized void started() {
+            pending++;
+        }
+
+        synchronized void finished() {
+            pending--;
+            notifyAll();
+        }
+
+        /**
+         * Wait until all requests of connection are served, cancel them if waiting is interrupted
+         * @return True iff all requests were served
+         */
+        synchronized boolean awaitRequests() {
+            try {
+                while (pending > 0) {
+                    wait();
+                }
+                return true;
+            } catch (InterruptedException e) {
+                token.cancel();
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package org.indigomg;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Canonical labeling of search states (small vertex-colored multigraphs) done in Java.
+ * Uses partition refinement with individualization of vertices and chooses labeling with the greatest certificate.
+ * Vertices of a cell which are all pairwise interchangeable (have same bonds to all other vertices) are never branched on,
+ * so isolated atoms of the same element do not cause exponential number of labelings.
+ */
+final class GraphCanonizer {
+
+    /**
+     * Result of canonical labeling
+     */
+    static final class Labeling {
+        /**
+         * Canonical position of each atom
+         */
+        final int[] ranks;
+
+        /**
+         * Cell of each atom in equitable partition before individualization (atoms from same orbit have same cell)
+         */
+        final int[] cells;
+
+        final Certificate certificate;
+
+        Labeling(int[] ranks, int[] cells, Certificate certificate) {
+            this.ranks = ranks;
+            this.cells = cells;
+            this.certificate = certificate;
+        }
+    }
+
+    /**
+     * Graph invariant which is the same for two graphs iff they are isomorphic:
+     * colors of atoms and bonds between them written in canonical order.
+     */
+    static final class Certificate implements Comparable<Certificate> {
+        private static final int COLOR_BITS = 8;
+        private static final int WEIGHT_BITS = 4;
+
+        private final int[] values;
+
+        Certificate(int[] values) {
+            this.values = values;
+        }
+
+        /**
+         * Pack certificate into longs: count of atoms, then colors of atoms by 8 bits and bond weights by 4 bits,
+         * so certificate of a state of n atoms takes about n / 8 + n * n / 32 longs.
+         * @return Packed certificate, equal arrays are obtained from equal certificates
+         */
+        long[] pack() {
+            int n = 0;
+            while (n + n * (n - 1) / 2 < values.length) {
+                n++;
+            }
+            int weightsCount = values.length - n;
+            int colorsPerLong = Long.SIZE / COLOR_BITS;
+            int weightsPerLong = Long.SIZE / WEIGHT_BITS;
+            int colorLongs = (n + colorsPerLong - 1) / colorsPerLong;
+            long[] res = new long[1 + colorLongs + (weightsCount + weightsPerLong - 1) / weightsPerLong];
+            res[0] = n;
+            for (int i = 0; i < n; i++) {
+                res[1 + i / colorsPerLong] |= (long) checkBits(values[i], COLOR_BITS) << (i % colorsPerLong * COLOR_BITS);
+            }
+            for (int i = 0; i < weightsCount; i++) {
+                res[1 + colorLongs + i / weightsPerLong] |= (long) checkBits(values[n + i], WEIGHT_BITS) << (i % weightsPerLong * WEIGHT_BITS);
+            }
+            return res;
+        }
+
+        private static int checkBits(int value, int bits) {
+            if (value >>> bits != 0) {
+                throw new IllegalStateException("Value " + value + " does not fit in " + bits + " bits of packed certificate");
+            }
+            return value;
+        }
+
+        void writeTo(DataOutput out) throws IOException {
+            out.writeInt(values.length);
+            for (int value : values) {
+                out.writeInt(value);
+            }
+        }
+
+        static Certificate readFrom(DataInput in) throws IOException {
+            int[] values = new int[in.readInt()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = in.readInt();
+            }
+            return new Certificate(values);
+        }
+
+        @Override
+        public int compareTo(Certificate o) {
+            int len = Math.min(values.length, o.values.length);
+            for (int i = 0; i < len; i++) {
+                if (values[i] != o.values[i]) {
+                    return Integer.compare(values[i], o.values[i]);
+                }
+            }
+            return Integer.compare(values.length, o.values.length);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            return Arrays.equals(values, ((Certificate) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(values);
+        }
+    }
+
+    private static final int MARK = 1;
+
+    private final int n;
+    private final int[] colors;
+    private final int[] weights;
+
+    private int[] bestRanks;
+    private Certificate bestCertificate;
+
+    /**
+     * @param state State to canonize
+     * @param root Initial state of search, bonds present in it are distinguished from bonds added during search. May be null.
+     */
+    GraphCanonizer(SearchState state, SearchState root) {
+        n = state.countAtoms();
+        colors = new int[n];
+        weights = new int[n * n];
+        for (int i = 0; i < n; i++) {
+            colors[i] = state.element(i) << 1;
+            for (int j = 0; j < n; j++) {
+                int rootOrder = root == null ? 0 : root.bondOrder(i, j);
+                weights[i * n + j] = state.bondOrder(i, j) * (SearchState.MAX_BOND_ORDER + 1) + rootOrder;
+            }
+        }
+    }
+
+    /**
+     * Give two atoms distinct color, so only labelings of graph in which they are mapped to each other are considered.
+     * Used for checking if two pairs of atoms are in the same orbit.
+     */
+    void mark(int a, int b) {
+        colors[a] |= MARK;
+        colors[b] |= MARK;
+    }
+
+    void unmark() {
+        for (int i = 0; i < n; i++) {
+            colors[i] &= ~MARK;
+        }
+    }
+
+    Labeling canonize() {
+        bestRanks = null;
+        bestCertificate = null;
+        int[] cells = refine(initialPartition());
+        search(cells);
+        return new Labeling(bestRanks, cells, bestCertificate);
+    }
+
+    private int[] initialPartition() {
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(colors[a], colors[b]));
+        int[] cells = new int[n];
+        for (int pos = 0; pos < n; pos++) {
+            int v = order[pos];
+            cells[v] = pos > 0 && colors[order[pos - 1]] == colors[v] ? cells[order[pos - 1]] : pos;
+        }
+        return cells;
+    }
+
+    /**
+     * Refine partition until it is equitable. Cell of vertex is the position where the cell starts in ordered partition,
+     * cells are split according to counts of bonds of each weight to each cell.
+     */
+    private int[] refine(int[] cells) {
+        int cellsCount = countDistinct(cells);
+        long[][] keys = new long[n][];
+        Integer[] order = new Integer[n];
+        while (cellsCount < n) {
+            for (int v = 0; v < n; v++) {
+                int degree = 0;
+                for (int u = 0; u < n; u++) {
+                    if (weights[v * n + u] != 0) degree++;
+                }
+                long[] key = new long[degree];
+                int k = 0;
+                for (int u = 0; u < n; u++) {
+                    int w = weights[v * n + u];
+                    if (w != 0) {
+                        key[k++] = ((long) cells[u] << 8) | w;
+                    }
+                }
+                Arrays.sort(key);
+                keys[v] = key;
+                order[v] = v;
+            }
+            final int[] current = cells;
+            Arrays.sort(order, (a, b) -> {
+                int c = Integer.compare(current[a], current[b]);
+                return c != 0 ? c : compareKeys(keys[a], keys[b]);
+            });
+            int[] refined = new int[n];
+            for (int pos = 0; pos < n; pos++) {
+                int v = order[pos];
+                if (pos > 0) {
+                    int prev = order[pos - 1];
+                    if (current[prev] == current[v] && compareKeys(keys[prev], keys[v]) == 0) {
+                        refined[v] = refined[prev];
+                        continue;
+                    }
+                }
+                refined[v] = pos;
+            }
+            int refinedCount = countDistinct(refined);
+            cells = refined;
+            if (refinedCount == cellsCount) {
+                break;
+            }
+            cellsCount = refinedCount;
+        }
+        return cells;
+    }
+
+    private void search(int[] cells) {
+        int[] sizes = new int[n];
+        for (int v = 0; v < n; v++) {
+            sizes[cells[v]]++;
+        }
+        int target = -1;
+        for (int pos = 0; pos < n; pos++) {
+            if (sizes[pos] > 1) {
+                target = pos;
+                break;
+            }
+        }
+        if (target < 0) {
+            leaf(cells);
+            return;
+        }
+        boolean interchangeable = areInterchangeable(cells, target);
+        for (int v = 0; v < n; v++) {
+            if (cells[v] != target) continue;
+            int[] individualized = new int[n];
+            for (int u = 0; u < n; u++) {
+                individualized[u] = cells[u] == target && u != v ? target + 1 : cells[u];
+            }
+            search(refine(individualized));
+            if (interchangeable) {
+                // all choices give the same certificate
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return True iff swapping any two vertices of cell is an automorphism of graph
+     */
+    private boolean areInterchangeable(int[] cells, int cell) {
+        int first = -1;
+        for (int v = 0; v < n; v++) {
+            if (cells[v] != cell) continue;
+            if (first < 0) {
+                first = v;
+                continue;
+            }
+            for (int u = 0; u < n; u++) {
+                if (u != first && u != v && weights[first * n + u] != weights[v * n + u]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void leaf(int[] ranks) {
+        int[] labels = new int[n];
+        for (int v = 0; v < n; v++) {
+            labels[ranks[v]] = v;
+        }
+        int[] values = new int[n + n * (n - 1) / 2];
+        int k = 0;
+        for (int p = 0; p < n; p++) {
+            values[k++] = colors[labels[p]];
+        }
+        for (int p = 0; p < n; p++) {
+            for (int q = p + 1; q < n; q++) {
+                values[k++] = weights[labels[p] * n + labels[q]];
+            }
+        }
+        Certificate certificate = new Certificate(values);
+        if (bestCertificate == null || certificate.compareTo(bestCertificate) > 0) {
+            bestCertificate = certificate;
+            bestRanks = ranks;
+        }
+    }
+
+    private static int compareKeys(long[] a, long[] b) {
+        int len = Math.min(a.length, b.length);
+        for (int i = 0; i < len; i++) {
+            if (a[i] != b[i]) {
+                return Long.compare(a[i], b[i]);
+            }
+        }
+        return Integer.compare(a.length, b.length);
+    }
+
+    private static int countDistinct(int[] cells) {
+        boolean[] seen = new boolean[cells.length];
+        int res = 0;
+        for (int cell : cells) {
+            if (!seen[cell]) {
+                seen[cell] = true;
+                res++;
+            }
+        }
+        return res;
+    }
+}
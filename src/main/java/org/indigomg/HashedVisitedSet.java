@@ -0,0 +1,291 @@
+package org.indigomg;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.function.IntFunction;
+
+/**
+ * Visited set keeping only fixed-width (64 or 128 bit) hashes of canonical forms of states.
+ * Hashes are stored in open-addressing tables of primitive longs, on heap or off heap (in direct buffers),
+ * so each state takes 8 or 16 bytes of table (plus free slots) instead of a whole string.
+ * Table is split into segments with separate locks, so set can be used by several threads.
+ * Different states with same hash are considered the same, for 128 bit hashes probability of it is negligible.
+ */
+public class HashedVisitedSet implements VisitedSet {
+    private static final int SEGMENTS_COUNT = 64;
+    private static final int SEGMENT_BITS = 6;
+    private static final int INITIAL_SEGMENT_CAPACITY = 1 << 8;
+
+    private final int width;
+    private final IntFunction<LongBuffer> allocator;
+    private final Segment[] segments = new Segment[SEGMENTS_COUNT];
+
+    /**
+     * Create on-heap set of 128 bit hashes.
+     */
+    public HashedVisitedSet() {
+        this(128, false);
+    }
+
+    /**
+     * @param hashBits Width of hashes, 64 or 128
+     * @param offHeap If true, hashes are stored in direct buffers out of Java heap
+     */
+    public HashedVisitedSet(int hashBits, boolean offHeap) {
+        this(hashBits, offHeap ? HashedVisitedSet::allocateDirect : HashedVisitedSet::allocateHeap);
+    }
+
+    /**
+     * @param hashBits Width of hashes, 64 or 128
+     * @param allocator Allocator of zero-filled tables, takes count of longs in table
+     */
+    protected HashedVisitedSet(int hashBits, IntFunction<LongBuffer> allocator) {
+        if (hashBits != 64 && hashBits != 128) {
+            throw new IllegalArgumentException("Only 64 and 128 bit hashes are supported");
+        }
+        this.width = hashBits / 64;
+        this.allocator = allocator;
+        for (int i = 0; i < SEGMENTS_COUNT; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    @Override
+    public boolean add(String canonicalForm) {
+        long[] hash = hash128(canonicalForm);
+        return add(hash[0], hash[1]);
+    }
+
+    @Override
+    public boolean add(long[] canonicalKey) {
+        long[] hash = hash128(canonicalKey);
+        return add(hash[0], hash[1]);
+    }
+
+    /**
+     * Mark state with given hash as visited.
+     * @param h1 First 64 bits of hash
+     * @param h2 Second 64 bits of hash, ignored for 64 bit set
+     * @return True iff state was not visited before
+     */
+    public boolean add(long h1, long h2) {
+        if (width == 1) {
+            h2 = 0;
+        }
+        if (h1 == 0 && h2 == 0) {
+            // zero key marks free slot
+            h1 = 1;
+        }
+        Segment segment = segments[(int) (h1 >>> (64 - SEGMENT_BITS))];
+        synchronized (segment) {
+            return segment.add(h1, h2);
+        }
+    }
+
+    @Override
+    public long size() {
+        long res = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                res += segment.size;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Write hashes of visited states: width of hashes, count of hashes and the hashes themselves.
+     */
+    @Override
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(width * 64);
+        out.writeLong(size());
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (int slot = 0; slot < segment.capacity; slot++) {
+                    int pos = slot * width;
+                    long k1 = segment.table.get(pos);
+                    long k2 = width == 2 ? segment.table.get(pos + 1) : 0;
+                    if (k1 != 0 || k2 != 0) {
+                        out.writeLong(k1);
+                        if (width == 2) {
+                            out.writeLong(k2);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void readFrom(DataInput in) throws IOException {
+        int bits = in.readInt();
+        if (bits != width * 64) {
+            throw new IOException("Set of " + bits + " bit hashes can not be read into set of " + width * 64 + " bit hashes");
+        }
+        long size = in.readLong();
+        for (long i = 0; i < size; i++) {
+            long h1 = in.readLong();
+            long h2 = width == 2 ? in.readLong() : 0;
+            add(h1, h2);
+        }
+    }
+
+    private LongBuffer allocate(int slots) {
+        return allocator.apply(slots * width);
+    }
+
+    private static LongBuffer allocateHeap(int longs) {
+        return LongBuffer.wrap(new long[longs]);
+    }
+
+    private static LongBuffer allocateDirect(int longs) {
+        return ByteBuffer.allocateDirect(longs * Long.BYTES).asLongBuffer();
+    }
+
+    private class Segment {
+        private LongBuffer table = allocate(INITIAL_SEGMENT_CAPACITY);
+        private int capacity = INITIAL_SEGMENT_CAPACITY;
+        private int size;
+
+        boolean add(long h1, long h2) {
+            if (!insert(table, capacity, h1, h2)) {
+                return false;
+            }
+            if (++size > capacity / 4 * 3) {
+                grow();
+            }
+            return true;
+        }
+
+        private boolean insert(LongBuffer t, int cap, long h1, long h2) {
+            int mask = cap - 1;
+            int slot = (int) h1 & mask;
+            while (true) {
+                int pos = slot * width;
+                long k1 = t.get(pos);
+                long k2 = width == 2 ? t.get(pos + 1) : 0;
+                if (k1 == 0 && k2 == 0) {
+                    t.put(pos, h1);
+                    if (width == 2) {
+                        t.put(pos + 1, h2);
+                    }
+                    return true;
+                }
+                if (k1 == h1 && k2 == h2) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        private void grow() {
+            int newCapacity = capacity * 2;
+            LongBuffer newTable = allocate(newCapacity);
+            for (int slot = 0; slot < capacity; slot++) {
+                int pos = slot * width;
+                long k1 = table.get(pos);
+                long k2 = width == 2 ? table.get(pos + 1) : 0;
+                if (k1 != 0 || k2 != 0) {
+                    insert(newTable, newCapacity, k1, k2);
+                }
+            }
+            table = newTable;
+            capacity = newCapacity;
+        }
+    }
+
+    /**
+     * 128 bit hash of string (MurmurHash3 x64 128 applied to UTF-16 code units).
+     * @param s String
+     * @return Array of two longs
+     */
+    static long[] hash128(CharSequence s) {
+        final long c1 = 0x87c37b91114253d5L;
+        final long c2 = 0x4cf5ad432745937fL;
+        long h1 = 0;
+        long h2 = 0;
+        int len = s.length();
+        int i = 0;
+        for (; i + 8 <= len; i += 8) {
+            long k1 = pack(s, i, 4);
+            long k2 = pack(s, i + 4, 4);
+            k1 *= c1; k1 = Long.rotateLeft(k1, 31); k1 *= c2; h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27); h1 += h2; h1 = h1 * 5 + 0x52dce729;
+            k2 *= c2; k2 = Long.rotateLeft(k2, 33); k2 *= c1; h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31); h2 += h1; h2 = h2 * 5 + 0x38495ab5;
+        }
+        int rest = len - i;
+        if (rest > 0) {
+            long k1 = pack(s, i, Math.min(rest, 4));
+            long k2 = rest > 4 ? pack(s, i + 4, rest - 4) : 0;
+            k2 *= c2; k2 = Long.rotateLeft(k2, 33); k2 *= c1; h2 ^= k2;
+            k1 *= c1; k1 = Long.rotateLeft(k1, 31); k1 *= c2; h1 ^= k1;
+        }
+        h1 ^= len * 2L;
+        h2 ^= len * 2L;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new long[] {h1, h2};
+    }
+
+    /**
+     * 128 bit hash of longs (MurmurHash3 x64 128 with blocks of two longs). Seed differs from hash of strings,
+     * so packed keys and strings kept in one set do not get related hashes.
+     * @param key Longs
+     * @return Array of two longs
+     */
+    static long[] hash128(long[] key) {
+        final long c1 = 0x87c37b91114253d5L;
+        final long c2 = 0x4cf5ad432745937fL;
+        long h1 = 0x9e3779b97f4a7c15L;
+        long h2 = 0x9e3779b97f4a7c15L;
+        int len = key.length;
+        int i = 0;
+        for (; i + 2 <= len; i += 2) {
+            long k1 = key[i];
+            long k2 = key[i + 1];
+            k1 *= c1; k1 = Long.rotateLeft(k1, 31); k1 *= c2; h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27); h1 += h2; h1 = h1 * 5 + 0x52dce729;
+            k2 *= c2; k2 = Long.rotateLeft(k2, 33); k2 *= c1; h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31); h2 += h1; h2 = h2 * 5 + 0x38495ab5;
+        }
+        if (i < len) {
+            long k1 = key[i];
+            k1 *= c1; k1 = Long.rotateLeft(k1, 31); k1 *= c2; h1 ^= k1;
+        }
+        h1 ^= len * 8L;
+        h2 ^= len * 8L;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new long[] {h1, h2};
+    }
+
+    private static long pack(CharSequence s, int from, int count) {
+        long res = 0;
+        for (int j = 0; j < count; j++) {
+            res |= ((long) s.charAt(from + j)) << (16 * j);
+        }
+        return res;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -1,8 +1,29 @@
 package org.indigomg;
+import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.function.Supplier;
+import javax.management.JMException;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.Logger;
+
 import com.ggasoftware.indigo.Indigo;
-import com.ggasoftware.indigo.IndigoObject;
 
 /**
  * Molecule Generation
@@ -13,10 +34,27 @@ import com.ggasoftware.indigo.IndigoObject;
 public class IndigoMG {
 	private static String fragments = null;
 	private static Indigo indigo = new Indigo();
+	private static final int WRITER_QUEUE_CAPACITY = 4096;
+	private static final int SERVER_QUEUE_CAPACITY = 64;
 
 	public static void main(String[] args) throws IOException{
 		String formula = null;
 		String out = "default_out.sdf";
+		int threads = 1;
+		String visited = "hash";
+		String visitedDir = System.getProperty("java.io.tmpdir");
+		boolean countOnly = false;
+		long statsPeriod = 0;
+		String checkpointDir = null;
+		String batch = null;
+		String batchDir = null;
+		int shardIndex = 0;
+		int shardCount = 1;
+		String merge = null;
+		long checkpointPeriod = 60000;
+		String serve = null;
+		GenerationConstraints constraints = null;
+		int queueCapacity = SERVER_QUEUE_CAPACITY;
 
 		if (args.length > 0) {
 
@@ -24,15 +62,40 @@ public class IndigoMG {
 				if(args[i].equals("-h")){
 					System.out.println("indigo-mg generates chemical structures");
 					System.out.println("");
-					System.out.println("Usage: java -jar indigo-mg.jar -ec <elemental_composition> [-o <out_file.sdf>, -fr <in_fragments.sdf>]");
+					System.out.println("Usage: java -jar indigo-mg.jar -ec <elemental_composition> | -batch <jobs_file> | -merge <shard_files> | -serve <port|-> [-o <out_file.sdf>, -fr <in_fragments.sdf>, -t <threads>, -vs <visited_set>, -vs-dir <dir>, -count, -stats <seconds>, -checkpoint <dir>, -checkpoint-period <seconds>, -batch-dir <dir>, -shard <i/N>, -queue <requests>, -constraints <constraints>]");
 					System.out.println("");
 					System.out.println("Required Parameters");
 					System.out.println("-ec:  elemental composition of the molecules to be generated.");
+					System.out.println("-batch: file (- for standard input) with one elemental composition per line, optionally");
+					System.out.println("         followed by fragments in smiles. Used instead of -ec, jobs are run on -t threads");
+					System.out.println("         and molecules are written to -o file tagged with " + BatchGenerator.FORMULA_TAG + ".");
 					System.out.println("");
 					System.out.println("Optional Parameters");
-					System.out.println("-o:   SDF file where to store the molecules. ");
+					System.out.println("-o:   file where to store the molecules. Format is chosen by extension: .sdf, .smi (smiles)");
+					System.out.println("         or .can (canonical smiles), with optional .gz for compressed output.");
 					System.out.println("-fr:  SDF file containing prescribed one or multiple substructures. In the case");
-					System.out.println("         of multiple substructures, they have to be non-overlapping. ");
+					System.out.println("         of multiple substructures, they may share atoms.");
+					System.out.println("-t:   count of threads used for generation (1 by default).");
+					System.out.println("-vs:  how visited states are stored: hash (128 bit hashes, default), hash64,");
+					System.out.println("         offheap (128 bit hashes out of Java heap), mapped (128 bit hashes in memory-mapped");
+					System.out.println("         files, for sets larger than RAM) or exact (canonical smiles).");
+					System.out.println("-vs-dir: directory for files of mapped visited set (temporary directory by default).");
+					System.out.println("-count: only count molecules (by rings and maximal bond order), nothing is written.");
+					System.out.println("-stats: log generation stats with given period in seconds, stats are also available through JMX.");
+					System.out.println("-checkpoint: directory where state of generation is periodically saved. If it contains");
+					System.out.println("         a checkpoint, generation is resumed and molecules are appended to the output file.");
+					System.out.println("-checkpoint-period: period of saving checkpoint in seconds (60 by default).");
+					System.out.println("-batch-dir: in batch mode write molecules of each composition to separate file in this directory,");
+					System.out.println("         files have format and extension of -o file (e.g. out/C6H8.smi.gz with -o all.smi.gz).");
+					System.out.println("-shard: generate only i-th of N disjoint parts of search (i from 0 to N - 1) with orderly engine,");
+					System.out.println("         union of outputs of all N shards contains all molecules.");
+					System.out.println("-merge: comma separated outputs of shards, they are merged to -o file without duplicates.");
+					System.out.println("-constraints: structural constraints of molecules checked during generation, e.g.");
+					System.out.println("         \"maxBondOrder=2 forbid(O,O) minRingSize=5 maxRings=1 maxDbe=3\"");
+					System.out.println("-serve: run as server on given local port (or on standard input and output with -)");
+					System.out.println("         answering requests given as JSON lines, e.g. {\"id\": \"1\", \"formula\": \"C6H8\", \"maxResults\": 100},");
+					System.out.println("         with -t warm worker threads.");
+					System.out.println("-queue: count of server requests which can wait for a worker (" + SERVER_QUEUE_CAPACITY + " by default).");
 					System.out.println("");
 					System.out.println("");
 					System.out.println("Examples:");
@@ -40,8 +103,18 @@ public class IndigoMG {
 					System.out.println("");
 					System.out.println("java -jar indigo-mg.jar -ec C6H6 -o out_C6H6.sdf");
 					System.out.println("");
+					System.out.println("java -jar indigo-mg.jar -ec C8H10O -o out_C8H10O.smi.gz");
+					System.out.println("");
 					System.out.println("java -jar indigo-mg.jar -ec C2H5NO2 -fr fragment_CO2.sdf");
 					System.out.println("");
+					System.out.println("java -jar indigo-mg.jar -batch formulas.txt -t 4 -batch-dir out");
+					System.out.println("");
+					System.out.println("java -jar indigo-mg.jar -ec C10H16 -shard 0/2 -o shard0.can");
+					System.out.println("java -jar indigo-mg.jar -ec C10H16 -shard 1/2 -o shard1.can");
+					System.out.println("java -jar indigo-mg.jar -merge shard0.can,shard1.can -o C10H16.can");
+					System.out.println("");
+					System.out.println("java -jar indigo-mg.jar -serve 7410 -t 4");
+					System.out.println("");
 
 					System.exit(1);
 				}
@@ -61,6 +134,118 @@ public class IndigoMG {
 						System.exit(1);
 					}
 				}
+				else if(args[i].equals("-t")){
+					try {
+						threads = Integer.parseInt(args[i + 1]);
+					} catch (Exception e) {
+						System.err.println("No threads count provided");
+						System.exit(1);
+					}
+				}
+				else if(args[i].equals("-vs")){
+					try {
+						visited = args[i + 1];
+					} catch (Exception e) {
+						System.err.println("No visited set type provided");
+						System.exit(1);
+					}
+				}
+				else if(args[i].equals("-vs-dir")){
+					try {
+						visitedDir = args[i + 1];
+					} catch (Exception e) {
+						System.err.println("No visited set directory provided");
+						System.exit(1);
+					}
+				}
+				else if(args[i].equals("-stats")){
+					try {
+						statsPeriod = Long.parseLong(args[i + 1]) * 1000;
+					} catch (Exception e) {
+						System.err.println("No stats period provided");
+						System.exit(1);
+					}
+				}
+				else if(args[i].equals("-checkpoint")){
+					try {
+						checkpointDir = args[i + 1];
+					} catch (Exception e) {
+						System.err.println("No checkpoint directory provided");
+						System.exit(1);
+					}
+				}
+				else if(args[i].equals("-checkpoint-period")){
+					try {
+						checkpointPeriod = Long.parseLong(args[i + 1]) * 1000;
+					} catch (Exception e) {
+						System.err.println("No checkpoint period provided");
+						System.exit(1);
+					}
+				}
+				else if(args[i].equals("-batch")){
+					try {
+						batch = args[i + 1];
+					} catch (Exception e) {
+						System.err.println("No batch file provided");
+						System.exit(1);
+					}
+				}
+				else if(args[i].equals("-batch-dir")){
+					try {
+						batchDir = args[i + 1];
+					} catch (Exception e) {
+						System.err.println("No batch output directory provided");
+						System.exit(1);
+					}
+				}
+				else if(args[i].equals("-shard")){
+					try {
+						String[] shard = args[i + 1].split("/");
+						shardIndex = Integer.parseInt(shard[0]);
+						shardCount = Integer.parseInt(shard[1]);
+					} catch (Exception e) {
+						System.err.println("Shard should be given as <index>/<count>");
+						System.exit(1);
+					}
+				}
+				else if(args[i].equals("-merge")){
+					try {
+						merge = args[i + 1];
+					} catch (Exception e) {
+						System.err.println("No shard files provided");
+						System.exit(1);
+					}
+				}
+				else if(args[i].equals("-serve")){
+					try {
+						serve = args[i + 1];
+					} catch (Exception e) {
+						System.err.println("No server port provided");
+						System.exit(1);
+					}
+				}
+				else if(args[i].equals("-constraints")){
+					try {
+						constraints = GenerationConstraints.parse(args[i + 1]);
+					} catch (IllegalArgumentException e) {
+						System.err.println(e.getMessage());
+						System.exit(1);
+					} catch (Exception e) {
+						System.err.println("No constraints provided");
+						System.exit(1);
+					}
+				}
+				else if(args[i].equals("-queue")){
+					try {
+						queueCapacity = Integer.parseInt(args[i + 1]);
+					} catch (Exception e) {
+						System.err.println("No queue capacity provided");
+						System.exit(1);
+					}
+				}
+				else if(args[i].equals("-count")){
+					countOnly = true;
+				}
 				else if(args[i].equals("-fr")){
 					try {
 						fragments = args[i + 1];
@@ -77,19 +262,202 @@ public class IndigoMG {
 		}
 
 
+		if (serve != null) {
+			runServer(serve, threads, queueCapacity, visitedSetFactory(visited, visitedDir), constraints);
+			return;
+		}
+		if (merge != null) {
+			long before = System.currentTimeMillis();
+			List<File> inputs = new ArrayList<>();
+			for (String input : merge.split(",")) {
+				inputs.add(new File(input));
+			}
+			long count;
+			try (MoleculeWriter writer = MoleculeWriter.open(new File(out), WRITER_QUEUE_CAPACITY)) {
+				count = new ShardMerger(indigo).merge(inputs, writer);
+			}
+			System.out.println("Total mols: " + count);
+			System.out.println("Took " + (System.currentTimeMillis() - before) + " ms.");
+			return;
+		}
+		if (batch != null) {
+			if (shardCount > 1 || statsPeriod > 0 || checkpointDir != null) {
+				System.err.println("Options -shard, -stats and -checkpoint can not be used with -batch");
+				System.exit(1);
+			}
+			runBatch(batch, batchDir, out, threads, visitedSetFactory(visited, visitedDir), constraints, countOnly);
+			return;
+		}
+		if (formula == null) {
+			System.err.println("No formula provided");
+			System.exit(1);
+		}
+
 		long before = System.currentTimeMillis();
 
-		List<IndigoObject> res = null;
+		long count = 0;
 		try {
-			res = new MoleculesGenerator(indigo).generateMolecules(formula, fragments);
-			IndigoObject saver = indigo.writeFile(out);
-			for (IndigoObject mol : res) {
-				saver.sdfAppend(mol);
+			MoleculesGenerator generator = new MoleculesGenerator(indigo);
+			generator.setParallelism(threads);
+			generator.setVisitedSetFactory(visitedSetFactory(visited, visitedDir));
+			generator.setConstraints(constraints);
+			try {
+				generator.setShard(shardIndex, shardCount);
+			} catch (IllegalArgumentException e) {
+				System.err.println(e.getMessage());
+				System.exit(1);
+			}
+			if (shardCount > 1) {
+				// Orderly search is a tree, so each molecule is generated by one shard
+				generator.setEngine(MoleculesGenerator.Engine.ORDERLY);
+			}
+			if (statsPeriod > 0) {
+				GenerationStats stats = new GenerationStats();
+				stats.registerMBean(formula);
+				stats.startLogging(statsPeriod);
+				generator.setStats(stats);
+			}
+			if (countOnly) {
+				MoleculesCount molsCount = generator.countMolecules(formula, fragments);
+				System.out.println(molsCount);
+				count = molsCount.getTotal();
+			} else if (checkpointDir != null) {
+				if (MoleculeWriter.isCompressed(new File(out))) {
+					// Position in compressed stream can not be restored on resume
+					System.err.println("Output of generation with checkpoints can not be compressed");
+					System.exit(1);
+				}
+				count = generateWithCheckpoints(generator, formula, out, new Checkpoint(new File(checkpointDir), checkpointPeriod));
+			} else {
+				// Molecules are formatted and written in background as soon as they are generated
+				try (MoleculeWriter writer = MoleculeWriter.open(new File(out), WRITER_QUEUE_CAPACITY)) {
+					count = generator.generateMolecules(formula, fragments, writer);
+				}
 			}
 		} catch (FragmentsOverlapException e) {
+			throw new IllegalStateException(e);
+		} catch (JMException e) {
+			System.err.println("Could not register stats MBean: " + e.getMessage());
+			System.exit(1);
+		}
+		System.out.println("Total mols: "+ count);
+		System.out.println("Took " + (System.currentTimeMillis() - before) + " ms.");
+
+	}
+
+	private static void runBatch(String batch, String batchDir, String out, int threads, Supplier<VisitedSet> visitedSetFactory,
+								 GenerationConstraints constraints, boolean countOnly) throws IOException {
+		long before = System.currentTimeMillis();
+		List<BatchGenerator.Job> jobs;
+		try (Reader reader = batch.equals("-") ? new InputStreamReader(System.in) : new FileReader(batch)) {
+			jobs = BatchGenerator.readJobs(reader);
 		}
-		System.out.println("Total mols: "+ res.size());
+		BatchGenerator generator = new BatchGenerator(threads);
+		generator.setGeneratorFactory(ind -> {
+			MoleculesGenerator gen = new MoleculesGenerator(ind);
+			gen.setVisitedSetFactory(visitedSetFactory);
+			gen.setConstraints(constraints);
+			return gen;
+		});
+		List<BatchGenerator.Result> results;
+		if (countOnly) {
+			results = generator.count(jobs);
+		} else if (batchDir != null) {
+			// Files of jobs have format of -o file
+			results = generator.generateToDirectory(jobs, new File(batchDir), MoleculeWriter.extensionOf(new File(out)));
+		} else {
+			results = generator.generateToFile(jobs, new File(out));
+		}
+		System.out.println(BatchGenerator.summary(results));
 		System.out.println("Took " + (System.currentTimeMillis() - before) + " ms.");
+	}
+
+	private static void runServer(String serve, int threads, int queueCapacity, Supplier<VisitedSet> visitedSetFactory,
+								  GenerationConstraints constraints) throws IOException {
+		boolean stdio = serve.equals("-");
+		// Standard output carries responses, so everything else printed (e.g. log) goes to standard error
+		PrintStream responses = System.out;
+		if (stdio) {
+			System.setOut(System.err);
+			// Console appenders keep stream they were created with
+			Enumeration<?> appenders = Logger.getRootLogger().getAllAppenders();
+			while (appenders.hasMoreElements()) {
+				Appender appender = (Appender) appenders.nextElement();
+				if (appender instanceof ConsoleAppender) {
+					((ConsoleAppender) appender).setTarget(ConsoleAppender.SYSTEM_ERR);
+					((ConsoleAppender) appender).activateOptions();
+				}
+			}
+		}
+		try (GeneratorServer server = new GeneratorServer(threads, queueCapacity, ind -> {
+			MoleculesGenerator gen = new MoleculesGenerator(ind);
+			gen.setVisitedSetFactory(visitedSetFactory);
+			// Default of requests without constraints
+			gen.setConstraints(constraints);
+			return gen;
+		})) {
+			if (stdio) {
+				server.serve(new InputStreamReader(System.in, StandardCharsets.UTF_8), new OutputStreamWriter(responses, StandardCharsets.UTF_8));
+			} else {
+				try (ServerSocket socket = new ServerSocket(Integer.parseInt(serve), 0, InetAddress.getLoopbackAddress())) {
+					server.listen(socket);
+				}
+			}
+		}
+	}
 
+	/**
+	 * Generate molecules writing them to file in format chosen by its extension (output can not be compressed).
+	 * If checkpoint exists, file is truncated to the position saved in checkpoint and new molecules are appended to it.
+	 */
+	private static long generateWithCheckpoints(MoleculesGenerator generator, String formula, String out, Checkpoint checkpoint) throws IOException, FragmentsOverlapException {
+		boolean resume = checkpoint.exists();
+		MoleculeWriter.Format format = MoleculeWriter.formatOf(new File(out));
+		try (FileChannel channel = FileChannel.open(Paths.get(out), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+			if (resume) {
+				channel.truncate(checkpoint.getOutputPosition());
+				System.out.println("Resuming from checkpoint, " + checkpoint.getMoleculesCount() + " mols already written");
+			} else {
+				channel.truncate(0);
+			}
+			channel.position(channel.size());
+			Writer writer = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+			checkpoint.setOutputPositionSupplier(() -> {
+				try {
+					writer.flush();
+					return channel.position();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			long count = generator.generateMolecules(formula, fragments, mol -> {
+				try {
+					MoleculeWriter.write(writer, format, mol, null);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}, checkpoint);
+			writer.flush();
+			return count;
+		}
+	}
+
+	private static Supplier<VisitedSet> visitedSetFactory(String type, String directory) {
+		switch (type) {
+			case "exact":
+				return ExactVisitedSet::new;
+			case "hash":
+				return HashedVisitedSet::new;
+			case "hash64":
+				return () -> new HashedVisitedSet(64, false);
+			case "offheap":
+				return () -> new HashedVisitedSet(128, true);
+			case "mapped":
+				return () -> new MappedVisitedSet(new File(directory));
+			default:
+				System.err.println("Unknown visited set type: " + type);
+				System.exit(1);
+				return null;
+		}
 	}
 }
@@ -0,0 +1,224 @@
+package org.indigomg;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON support for the line protocol of {@link GeneratorServer}: parsing of one object
+ * (values are strings, numbers as Long or Double, booleans, null, arrays and nested objects) and quoting of strings.
+ */
+final class Json {
+    private final String text;
+    private int pos;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    /**
+     * @param text JSON object
+     * @return Members of object in order of appearance
+     * @throws IllegalArgumentException If text is not a JSON object
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> parseObject(String text) {
+        Json json = new Json(text);
+        json.skipSpaces();
+        if (json.peek() != '{') {
+            throw json.error("object expected");
+        }
+        Object res = json.value();
+        json.skipSpaces();
+        if (json.pos != text.length()) {
+            throw json.error("unexpected text after object");
+        }
+        return (Map<String, Object>) res;
+    }
+
+    /**
+     * @return String as JSON string literal
+     */
+    static String quote(String s) {
+        StringBuilder res = new StringBuilder(s.length() + 2);
+        res.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': res.append("\\\""); break;
+                case '\\': res.append("\\\\"); break;
+                case '\n': res.append("\\n"); break;
+                case '\r': res.append("\\r"); break;
+                case '\t': res.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        res.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        res.append(c);
+                    }
+            }
+        }
+        return res.append('"').toString();
+    }
+
+    private Object value() {
+        skipSpaces();
+        char c = peek();
+        switch (c) {
+            case '{':
+                return object();
+            case '[':
+                return array();
+            case '"':
+                return string();
+            case 't':
+                return literal("true", Boolean.TRUE);
+            case 'f':
+                return literal("false", Boolean.FALSE);
+            case 'n':
+                return literal("null", null);
+            default:
+                if (c == '-' || c >= '0' && c <= '9') {
+                    return number();
+                }
+                throw error("unexpected character '" + c + "'");
+        }
+    }
+
+    private Map<String, Object> object() {
+        Map<String, Object> res = new LinkedHashMap<>();
+        pos++;
+        skipSpaces();
+        if (peek() == '}') {
+            pos++;
+            return res;
+        }
+        while (true) {
+            skipSpaces();
+            if (peek() != '"') {
+                throw error("name of member expected");
+            }
+            String name = string();
+            skipSpaces();
+            expect(':');
+            res.put(name, value());
+            skipSpaces();
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect('}');
+                return res;
+            }
+        }
+    }
+
+    private List<Object> array() {
+        List<Object> res = new ArrayList<>();
+        pos++;
+        skipSpaces();
+        if (peek() == ']') {
+            pos++;
+            return res;
+        }
+        while (true) {
+            res.add(value());
+            skipSpaces();
+            if (peek() == ',') {
+                pos++;
+            } else {
+                expect(']');
+                return res;
+            }
+        }
+    }
+
+    private String string() {
+        StringBuilder res = new StringBuilder();
+        pos++;
+        while (true) {
+            char c = next();
+            if (c == '"') {
+                return res.toString();
+            }
+            if (c != '\\') {
+                res.append(c);
+                continue;
+            }
+            char e = next();
+            switch (e) {
+                case 'b': res.append('\b'); break;
+                case 'f': res.append('\f'); break;
+                case 'n': res.append('\n'); break;
+                case 'r': res.append('\r'); break;
+                case 't': res.append('\t'); break;
+                case 'u':
+                    if (pos + 4 > text.length()) {
+                        throw error("bad unicode escape");
+                    }
+                    res.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                    pos += 4;
+                    break;
+                default:
+                    res.append(e);
+            }
+        }
+    }
+
+    private Object number() {
+        int start = pos;
+        boolean fractional = false;
+        while (pos < text.length()) {
+            char c = text.charAt(pos);
+            if (c == '.' || c == 'e' || c == 'E') {
+                fractional = true;
+            } else if (!(c == '-' || c == '+' || c >= '0' && c <= '9')) {
+                break;
+            }
+            pos++;
+        }
+        String number = text.substring(start, pos);
+        try {
+            return fractional ? (Object) Double.parseDouble(number) : (Object) Long.parseLong(number);
+        } catch (NumberFormatException e) {
+            throw error("bad number " + number);
+        }
+    }
+
+    private Object literal(String word, Object value) {
+        if (!text.startsWith(word, pos)) {
+            throw error("unexpected literal");
+        }
+        pos += word.length();
+        return value;
+    }
+
+    private void skipSpaces() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private char peek() {
+        if (pos >= text.length()) {
+            throw error("unexpected end");
+        }
+        return text.charAt(pos);
+    }
+
+    private char next() {
+        char c = peek();
+        pos++;
+        return c;
+    }
+
+    private void expect(char c) {
+        if (next() != c) {
+            throw error("'" + c + "' expected");
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Bad JSON at position " + pos + ": " + message);
+    }
+}
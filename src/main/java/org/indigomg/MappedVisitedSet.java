@@ -0,0 +1,56 @@
+package org.indigomg;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Visited set of hashes kept in memory-mapped files, for searches whose visited states do not fit in memory.
+ * It has the same segmented open-addressing tables as {@link HashedVisitedSet}, but each table is a file
+ * in given directory mapped into memory, so the OS page cache holds the part of tables which fits in RAM
+ * and the rest is paged to disk. Tables grow by segments: only the segment which is full is rehashed into
+ * a new file of double size.
+ * <p>
+ * Files are unlinked right after mapping, so they do not outlive the process, but the disk space of each table
+ * is reclaimed only when its buffer is garbage collected.
+ */
+public class MappedVisitedSet extends HashedVisitedSet {
+
+    /**
+     * Create set of 128 bit hashes.
+     * @param directory Directory for files of tables, created if it does not exist
+     */
+    public MappedVisitedSet(File directory) {
+        this(directory, 128);
+    }
+
+    /**
+     * @param directory Directory for files of tables, created if it does not exist
+     * @param hashBits Width of hashes, 64 or 128
+     */
+    public MappedVisitedSet(File directory, int hashBits) {
+        super(hashBits, longs -> map(directory.toPath(), longs));
+    }
+
+    private static LongBuffer map(Path directory, int longs) {
+        try {
+            Files.createDirectories(directory);
+            Path file = Files.createTempFile(directory, "visited", ".bin");
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // Mapping beyond the end of file extends it with zeros, which mark free slots
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) longs * Long.BYTES).asLongBuffer();
+            } finally {
+                if (!file.toFile().delete()) {
+                    file.toFile().deleteOnExit();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package org.indigomg;
+
+import com.ggasoftware.indigo.Indigo;
+import com.ggasoftware.indigo.IndigoObject;
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Output of generated molecules written in background. Generator puts accepted states to a bounded queue
+ * (blocking when writer falls behind), writer thread creates molecules with its own Indigo instance,
+ * formats and writes them, so generation and output overlap.
+ * Used with {@link MoleculesGenerator#generateMolecules(String, String, MoleculeWriter)}.
+ */
+public class MoleculeWriter implements AutoCloseable {
+    private static Logger logger = Logger.getLogger(MoleculeWriter.class);
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int DRAIN_SIZE = 256;
+    private static final Object END = new Object();
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    /**
+     * Format of output
+     */
+    public enum Format {
+        /**
+         * One smiles per line
+         */
+        SMILES,
+
+        /**
+         * One canonical smiles per line
+         */
+        CANONICAL_SMILES,
+
+        /**
+         * Molfiles separated by $$$$
+         */
+        SDF
+    }
+
+    private final Format format;
+    private final BlockingQueue<Object> queue;
+    private final Writer out;
+    private final Thread thread;
+    private volatile Throwable error;
+    private volatile long written;
+    private boolean closed;
+
+    /**
+     * @param file Output file
+     * @param format Format of output
+     * @param compressed If true, output is compressed with gzip
+     * @param queueCapacity Count of molecules which can wait for writing
+     * @throws IOException If file can not be opened
+     */
+    public MoleculeWriter(File file, Format format, boolean compressed, int queueCapacity) throws IOException {
+        this.format = format;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        OutputStream stream = new FileOutputStream(file);
+        if (compressed) {
+            stream = new GZIPOutputStream(stream, BUFFER_SIZE);
+        }
+        this.out = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE);
+        this.thread = new Thread(this::run, "molecule-writer-" + file.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Create writer choosing format by extension of file name: .smi or .smiles for smiles, .can for canonical smiles,
+     * .sdf or anything else for SDF, with optional .gz suffix for compressed output.
+     * @param file Output file
+     * @param queueCapacity Count of molecules which can wait for writing
+     * @return Writer
+     * @throws IOException If file can not be opened
+     */
+    public static MoleculeWriter open(File file, int queueCapacity) throws IOException {
+        return new MoleculeWriter(file, formatOf(file), isCompressed(file), queueCapacity);
+    }
+
+    /**
+     * @return Format chosen by extension of file name as in {@link #open(File, int)}
+     */
+    static Format formatOf(File file) {
+        String name = file.getName().toLowerCase();
+        if (isCompressed(file)) {
+            name = name.substring(0, name.length() - 3);
+        }
+        if (name.endsWith(".smi") || name.endsWith(".smiles")) {
+            return Format.SMILES;
+        } else if (name.endsWith(".can")) {
+            return Format.CANONICAL_SMILES;
+        }
+        return Format.SDF;
+    }
+
+    /**
+     * @return True iff output to file is compressed as in {@link #open(File, int)}
+     */
+    static boolean isCompressed(File file) {
+        return file.getName().toLowerCase().endsWith(".gz");
+    }
+
+    /**
+     * @return Extension giving the same format and compression as file name in {@link #open(File, int)}, e.g. .smi.gz
+     */
+    static String extensionOf(File file) {
+        String res;
+        switch (formatOf(file)) {
+            case SMILES:
+                res = ".smi";
+                break;
+            case CANONICAL_SMILES:
+                res = ".can";
+                break;
+            default:
+                res = ".sdf";
+        }
+        return isCompressed(file) ? res + ".gz" : res;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * @return Count of molecules written so far
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * Put molecule to queue, waiting if the queue is full.
+     * @throws UncheckedIOException If writing of previous molecules failed
+     */
+    void accept(SearchState mol) {
+        put(mol);
+    }
+
+    /**
+     * Put molecule with formula to queue, waiting if the queue is full. Formula is written as
+     * {@link BatchGenerator#FORMULA_TAG} data item in SDF and after smiles separated by space otherwise.
+     * @throws UncheckedIOException If writing of previous molecules failed
+     */
+    void accept(SearchState mol, String formula) {
+        put(new Tagged(mol, formula));
+    }
+
+    private void put(Object item) {
+        try {
+            // Writer thread which failed does not take molecules any more
+            do {
+                checkError();
+            } while (!queue.offer(item, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for writer", e);
+        }
+    }
+
+    /**
+     * Write all queued molecules and close output.
+     * @throws IOException If writing failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            while (thread.isAlive() && !queue.offer(END, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                // wait until writer takes some molecules or fails
+            }
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for writer");
+        }
+        if (error != null) {
+            throw error instanceof IOException ? (IOException) error : new IOException(error);
+        }
+    }
+
+    private void checkError() {
+        Throwable e = error;
+        if (e != null) {
+            throw e instanceof IOException ? new UncheckedIOException((IOException) e) : new IllegalStateException(e);
+        }
+    }
+
+    private void run() {
+        Indigo indigo = new Indigo();
+        List<Object> batch = new ArrayList<>(DRAIN_SIZE);
+        try {
+            boolean finished = false;
+            while (!finished) {
+                batch.add(queue.take());
+                queue.drainTo(batch, DRAIN_SIZE - 1);
+                for (Object item : batch) {
+                    if (item == END) {
+                        finished = true;
+                        break;
+                    }
+                    if (item instanceof Tagged) {
+                        Tagged tagged = (Tagged) item;
+                        write(out, format, tagged.mol.toMolecule(indigo), tagged.formula);
+                    } else {
+                        write(out, format, ((SearchState) item).toMolecule(indigo), null);
+                    }
+                    written++;
+                }
+                batch.clear();
+            }
+        } catch (Throwable e) {
+            logger.error("Writing molecules failed", e);
+            error = e;
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write molecule in given format
+     * @param formula Formula written with molecule, null if it is not written
+     */
+    static void write(Writer out, Format format, IndigoObject mol, String formula) throws IOException {
+        switch (format) {
+            case SMILES:
+            case CANONICAL_SMILES:
+                out.write(format == Format.SMILES ? mol.smiles() : mol.canonicalSmiles());
+                if (formula != null) {
+                    out.write(' ');
+                    out.write(formula);
+                }
+                out.write('\n');
+                break;
+            case SDF:
+                String molfile = mol.molfile();
+                out.write(molfile);
+                if (!molfile.endsWith("\n")) {
+                    out.write('\n');
+                }
+                if (formula != null) {
+                    out.write("> <" + BatchGenerator.FORMULA_TAG + ">\n" + formula + "\n\n");
+                }
+                out.write("$$$$\n");
+                break;
+        }
+    }
+
+    /**
+     * Molecule written with formula
+     */
+    private static class Tagged {
+        final SearchState mol;
+        final String formula;
+
+        Tagged(SearchState mol, String formula) {
+            this.mol = mol;
+            this.formula = formula;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.indigomg;
+
+/**
+ * Count of generated molecules with breakdowns by count of rings and by maximal bond order.
+ */
+public class MoleculesCount {
+    private long total;
+    private long[] byRings = new long[1];
+    private final long[] byMaxBondOrder = new long[SearchState.MAX_BOND_ORDER + 1];
+
+    void add(SearchState mol) {
+        // Molecule is connected, so count of rings is its cyclomatic number
+        int rings = mol.countBonds() - mol.countAtoms() + 1;
+        if (rings >= byRings.length) {
+            long[] grown = new long[rings + 1];
+            System.arraycopy(byRings, 0, grown, 0, byRings.length);
+            byRings = grown;
+        }
+        byRings[rings]++;
+        byMaxBondOrder[mol.maxBondOrder()]++;
+        total++;
+    }
+
+    /**
+     * @return Total count of molecules
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return Greatest count of rings in molecules
+     */
+    public int getMaxRings() {
+        return byRings.length - 1;
+    }
+
+    /**
+     * @param rings Count of rings
+     * @return Count of molecules with given count of rings
+     */
+    public long getCountByRings(int rings) {
+        return rings < byRings.length ? byRings[rings] : 0;
+    }
+
+    /**
+     * @param order Bond order, 0 for molecules without bonds
+     * @return Count of molecules in which maximal bond order is given one
+     */
+    public long getCountByMaxBondOrder(int order) {
+        return order < byMaxBondOrder.length ? byMaxBondOrder[order] : 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder res = new StringBuilder();
+        res.append("Total: ").append(total).append("\n");
+        res.append("By rings:");
+        for (int rings = 0; rings < byRings.length; rings++) {
+            res.append(" ").append(rings).append(": ").append(byRings[rings]).append(";");
+        }
+        res.append("\n");
+        res.append("By max bond order:");
+        for (int order = 0; order < byMaxBondOrder.length; order++) {
+            res.append(" ").append(order).append(": ").append(byMaxBondOrder[order]).append(";");
+        }
+        return res.toString();
+    }
+}
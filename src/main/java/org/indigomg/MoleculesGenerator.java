@@ -4,7 +4,21 @@ import com.ggasoftware.indigo.Indigo;
 import com.ggasoftware.indigo.IndigoObject;
 import org.apache.log4j.Logger;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.LongBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -18,7 +32,20 @@ public class MoleculesGenerator {
     private static Logger logger = Logger.getLogger(MoleculesGenerator.class);
 
     private static final int MAX_OPENINGS_INDEX = 0;
-    private static final int NH_INDEX = 0;
+    private static final int NH_INDEX = 1;
+
+    /**
+     * In parallel mode extensions are forked as separate tasks up to this depth of search tree,
+     * deeper subtrees are processed by the worker which took the task.
+     */
+    private static final int PARALLEL_SPLIT_DEPTH = 4;
+
+    /**
+     * In sharded mode states this count of levels above the deepest possible level (by max openings) are assigned
+     * to shards, shard explores only subtrees of its states. Most states of search are in the last levels,
+     * so shards get similar parts of them. Molecules accepted before this depth are assigned to shards in the same way.
+     */
+    private static final int SHARD_LEVELS = 2;
 
     static {
         VALENCES = new HashMap<>();
@@ -64,12 +91,441 @@ public class MoleculesGenerator {
         }
     }
 
+    /**
+     * Algorithm used for avoiding duplicates during generation
+     */
+    public enum Engine {
+        /**
+         * Canonical forms of all visited states are remembered in a visited set,
+         * extension is processed only if it was not visited before.
+         */
+        VISITED_SET,
+
+        /**
+         * Orderly generation (canonical construction path): extension is processed only if the added bond is
+         * the canonical last bond of the extended state. Each state is reached exactly once and nothing is remembered,
+         * so memory is proportional to depth of search.
+         */
+        ORDERLY,
+
+        /**
+         * Breadth-first search by bond order sum: all states of one level are expanded before the next level.
+         * Each extension increases bond order sum by one, so duplicates can only be on the same level and the visited set
+         * holds only states of the next level. Memory is proportional to the widest level instead of the whole tree,
+         * and each level is expanded in parallel as one batch.
+         */
+        LEVELS
+    }
+
+    /**
+     * Canonical form identifying states in visited sets of {@link Engine#VISITED_SET} and {@link Engine#LEVELS}
+     */
+    public enum StateKey {
+        /**
+         * Certificate computed in Java by partition refinement, packed into longs. Indigo is not called during search,
+         * molecules are created only when they are passed to caller.
+         */
+        JAVA,
+
+        /**
+         * Indigo canonical smiles computed for every extension
+         */
+        INDIGO_SMILES,
+
+        /**
+         * Java keys are used and checked against Indigo canonical smiles: a key identifying states with different
+         * canonical smiles is an error. Much slower, for verification only.
+         */
+        VALIDATE
+    }
+
+    /**
+     * State of one generation run shared by all recursive calls of generateMol
+     */
+    private class Search {
+        final int nH;
+        final int maxOpenings;
+        final Engine engine;
+        final SearchState root;
+        VisitedSet visited;
+        final Set<GraphCanonizer.Certificate> accepted;
+        final Consumer<SearchState> acceptor;
+        final boolean parallel;
+        final GenerationStats stats;
+        final int shardIndex;
+        final int shardCount;
+        final int shardDepth;
+        final StateKey stateKey;
+        final GenerationConstraints constraints;
+        long count;
+
+        /**
+         * Canonical smiles of each key and keys of each canonical smiles met in validation mode, null otherwise
+         */
+        final ConcurrentMap<LongBuffer, String> validatedKeys;
+        final ConcurrentMap<String, LongBuffer> validatedSmiles;
+
+        /**
+         * Canonical smiles identifying several states with different keys, in validation mode
+         */
+        final Set<String> splitSmiles;
+
+        /**
+         * Limits of run, null if run is not limited
+         */
+        GenerationOptions options;
+        long deadlineNanos;
+        final AtomicLong nodes = new AtomicLong();
+        volatile GenerationResult.StopReason stopReason;
+
+        /**
+         * States waiting for expansion when search is run with checkpoints, null otherwise
+         * (then states are expanded recursively)
+         */
+        Deque<Checkpoint.Node> frontier;
+
+        /**
+         * States of the next level with {@link Engine#LEVELS}, null otherwise
+         */
+        Queue<SearchState> nextLevel;
+
+        /**
+         * Flags of hydrogen counts of accepted states when compositions with the same heavy atoms are generated
+         * in one pass (then nH is the lowest of them), null if only states with nH hydrogens are accepted
+         */
+        boolean[] hydrogenTargets;
+
+        /**
+         * Fragments which share elements with fragments placed in initial state, accepted molecules should contain them
+         * too and states which can not lead to such molecules are pruned. Null if all fragments are placed.
+         */
+        List<SubstructureQuery> queries;
+
+        Search(int nH, int maxOpenings, SearchState root, Consumer<SearchState> acceptor, boolean parallel) {
+            this.nH = nH;
+            this.maxOpenings = maxOpenings;
+            this.engine = MoleculesGenerator.this.engine;
+            this.root = root;
+            this.acceptor = acceptor;
+            this.parallel = parallel;
+            this.visited = engine != Engine.ORDERLY ? visitedSetFactory.get() : null;
+            this.stats = MoleculesGenerator.this.stats;
+            this.shardIndex = MoleculesGenerator.this.shardIndex;
+            this.shardCount = MoleculesGenerator.this.shardCount;
+            this.shardDepth = Math.max(1, maxOpenings / 2 - root.bondOrderSum() - SHARD_LEVELS);
+            this.stateKey = MoleculesGenerator.this.stateKey;
+            this.constraints = MoleculesGenerator.this.constraints;
+            boolean validate = engine != Engine.ORDERLY && stateKey == StateKey.VALIDATE;
+            this.validatedKeys = validate ? new ConcurrentHashMap<>() : null;
+            this.validatedSmiles = validate ? new ConcurrentHashMap<>() : null;
+            this.splitSmiles = validate ? ConcurrentHashMap.newKeySet() : null;
+            if (stats != null) {
+                stats.visitedSet(visited);
+            }
+            // In orderly mode bonds of fragments are distinguished from added bonds, so one molecule
+            // can be reached several times with fragment in different positions.
+            this.accepted = engine == Engine.ORDERLY && root.bondOrderSum() > 0 ? ConcurrentHashMap.newKeySet() : null;
+        }
+
+        /**
+         * @return True iff state belongs to the shard of this search. Shard is chosen by hash of canonical form
+         * of state, so it is the same in all processes generating the same composition. Values of certificate
+         * share low bits (colors are even), so they are mixed by 128 bit hash of packed certificate.
+         */
+        boolean ownsShard(SearchState state) {
+            if (shardCount == 1) {
+                return true;
+            }
+            long[] hash = HashedVisitedSet.hash128(new GraphCanonizer(state, root).canonize().certificate.pack());
+            return Math.floorMod(hash[0], (long) shardCount) == shardIndex;
+        }
+
+        /**
+         * @return True iff state has count of hydrogens of one of generated compositions
+         */
+        boolean hasTargetHydrogens(SearchState state) {
+            int hydrogens = state.countHydrogens();
+            return hydrogens < hydrogenTargets.length && hydrogenTargets[hydrogens];
+        }
+
+        void limit(GenerationOptions options) {
+            this.options = options;
+            if (options != null && options.getMaxMillis() > 0) {
+                deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(options.getMaxMillis());
+            }
+        }
+
+        /**
+         * Count expanded state and check limits of run
+         * @return True iff search should stop
+         */
+        boolean shouldStop() {
+            if (stopReason != null) {
+                return true;
+            }
+            if (options == null) {
+                return false;
+            }
+            long expanded = nodes.incrementAndGet();
+            CancellationToken token = options.getCancellationToken();
+            if (token != null && token.isCancelled()) {
+                stop(GenerationResult.StopReason.CANCELLED);
+            } else if (options.getMaxNodes() > 0 && expanded > options.getMaxNodes()) {
+                stop(GenerationResult.StopReason.NODES_LIMIT);
+            } else if (deadlineNanos != 0 && System.nanoTime() - deadlineNanos > 0) {
+                stop(GenerationResult.StopReason.TIME_LIMIT);
+            }
+            return stopReason != null;
+        }
+
+        void stop(GenerationResult.StopReason reason) {
+            if (stopReason == null) {
+                stopReason = reason;
+            }
+        }
+
+        /**
+         * @return True iff states are identified by Java keys in visited set
+         */
+        boolean usesJavaKeys() {
+            return engine != Engine.ORDERLY && stateKey != StateKey.INDIGO_SMILES;
+        }
+
+        /**
+         * Check that key of state identifies only states with the same canonical smiles
+         * @throws IllegalStateException If key was met with another canonical smiles
+         */
+        void validate(long[] key, SearchState state) {
+            String smiles = canonicalize(state, indigo());
+            LongBuffer wrapped = LongBuffer.wrap(key);
+            String previous = validatedKeys.putIfAbsent(wrapped, smiles);
+            if (previous != null && !previous.equals(smiles)) {
+                throw new IllegalStateException("Canonical key " + Arrays.toString(key) + " identifies states "
+                        + previous + " and " + smiles);
+            }
+            LongBuffer previousKey = validatedSmiles.putIfAbsent(smiles, wrapped);
+            if (previousKey != null && !previousKey.equals(wrapped)) {
+                splitSmiles.add(smiles);
+            }
+        }
+
+        /**
+         * @return Indigo instance confined to the current thread
+         */
+        Indigo indigo() {
+            return parallel ? workerIndigo.get() : indigo;
+        }
+
+        void accept(SearchState mol) {
+            if (queries != null && !containsQueries(mol)) {
+                return;
+            }
+            if (accepted != null && !accepted.add(new GraphCanonizer(mol, null).canonize().certificate)) {
+                return;
+            }
+            if (parallel) {
+                // Accepted molecules are passed to caller in the same way as in sequential mode
+                // (e.g. molecules are created by generator Indigo instance)
+                synchronized (this) {
+                    pass(mol);
+                }
+            } else {
+                pass(mol);
+            }
+        }
+
+        private boolean containsQueries(SearchState mol) {
+            for (SubstructureQuery query : queries) {
+                if (!query.matches(mol)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return False if no state obtained from given one by adding bonds contains all query fragments
+         */
+        boolean canContainQueries(SearchState mol) {
+            if (queries == null) {
+                return true;
+            }
+            for (SubstructureQuery query : queries) {
+                if (!query.canMatch(mol)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void pass(SearchState mol) {
+            if (options != null && options.getMaxResults() > 0 && count >= options.getMaxResults()) {
+                // Molecule beyond the limit shows that not all molecules are generated
+                stop(GenerationResult.StopReason.RESULTS_LIMIT);
+                return;
+            }
+            if (stats != null) {
+                stats.acceptedMolecules.increment();
+            }
+            acceptor.accept(mol);
+            count++;
+        }
+    }
+
+    /**
+     * Task processing subtree of search in parallel mode
+     */
+    private class SubtreeTask extends RecursiveAction {
+        private final SearchState state;
+        private final int depth;
+        private final Search search;
+
+        SubtreeTask(SearchState state, int depth, Search search) {
+            this.state = state;
+            this.depth = depth;
+            this.search = search;
+        }
+
+        @Override
+        protected void compute() {
+            generateMol(state, false, depth, search);
+        }
+    }
+
     private Indigo indigo;
+    private int parallelism = 1;
+    private ForkJoinPool pool;
+    private final ThreadLocal<Indigo> workerIndigo = ThreadLocal.withInitial(Indigo::new);
+    private Supplier<? extends VisitedSet> visitedSetFactory = HashedVisitedSet::new;
+    private Engine engine = Engine.VISITED_SET;
+    private StateKey stateKey = StateKey.JAVA;
+    private GenerationConstraints constraints;
+    private GenerationStats stats;
+    private int shardIndex = 0;
+    private int shardCount = 1;
 
     public MoleculesGenerator(Indigo indigo) {
         this.indigo = indigo;
     }
 
+    /**
+     * @return Indigo instance used for creating generated molecules
+     */
+    public Indigo getIndigo() {
+        return indigo;
+    }
+
+    /**
+     * Set count of threads used for generation. With more than one thread the search tree is split into tasks
+     * which are run on a work-stealing pool, each worker thread uses its own Indigo instance.
+     * Generated molecules are the same as in sequential mode, but come in different order.
+     * @param parallelism Count of threads, 1 (default) means sequential generation
+     */
+    public synchronized void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism should be positive");
+        }
+        if (parallelism != this.parallelism && pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set factory of visited sets, new set is created for each generation run.
+     * By default sets of 128 bit hashes of canonical forms ({@link HashedVisitedSet}) are used.
+     * @param visitedSetFactory Factory of visited sets
+     */
+    public void setVisitedSetFactory(Supplier<? extends VisitedSet> visitedSetFactory) {
+        this.visitedSetFactory = visitedSetFactory;
+    }
+
+    /**
+     * Set algorithm used for avoiding duplicates, {@link Engine#VISITED_SET} by default.
+     * @param engine Engine
+     */
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Set canonical form of states kept in visited set, {@link StateKey#JAVA} by default.
+     * Not used by {@link Engine#ORDERLY}.
+     * @param stateKey Kind of canonical form
+     */
+    public void setStateKey(StateKey stateKey) {
+        this.stateKey = stateKey;
+    }
+
+    public StateKey getStateKey() {
+        return stateKey;
+    }
+
+    /**
+     * Set constraints which generated molecules should satisfy. They are checked during search,
+     * so states which can not lead to molecules satisfying them are not expanded.
+     * @param constraints Constraints, null (default) means no constraints
+     */
+    public void setConstraints(GenerationConstraints constraints) {
+        this.constraints = constraints;
+    }
+
+    public GenerationConstraints getConstraints() {
+        return constraints;
+    }
+
+    /**
+     * Set stats which are updated during generation. Stats accumulate counts over all runs until they are reset.
+     * @param stats Stats, null (default) disables counting
+     */
+    public void setStats(GenerationStats stats) {
+        this.stats = stats;
+    }
+
+    public GenerationStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Generate only one of several disjoint parts of the search tree, so generation can be split between processes.
+     * Subtrees are assigned to shards by hash of canonical form of their roots, so union of molecules generated
+     * by all shards is the same as without sharding. With {@link Engine#VISITED_SET} (and with fragments)
+     * one molecule can be generated by several shards, duplicates are removed by {@link ShardMerger}.
+     * @param shardIndex Index of shard, from 0 to shardCount - 1
+     * @param shardCount Count of shards, 1 (default) means no sharding
+     */
+    public void setShard(int shardIndex, int shardCount) {
+        if (shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount) {
+            throw new IllegalArgumentException("Shard index should be from 0 to count of shards - 1");
+        }
+        this.shardIndex = shardIndex;
+        this.shardCount = shardCount;
+    }
+
+    public int getShardIndex() {
+        return shardIndex;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    private synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
     /**
      * Generate all possible molecules with given elemental composition and containing given fragments
      * @param elementalComposition Elemental composition
@@ -81,6 +537,20 @@ public class MoleculesGenerator {
         return generateMolecules(container, fragments);
     }
 
+    /**
+     * Generate all possible molecules with given elemental composition and containing given fragments.
+     * Each molecule is passed to consumer as soon as it is generated, so molecules are not kept in memory.
+     * @param elementalComposition Elemental composition
+     * @param fragments List of fragments, they may share atoms
+     * @param consumer Consumer receiving generated molecules
+     * @return Count of generated molecules
+     * @throws FragmentsOverlapException
+     */
+    public long generateMolecules(String elementalComposition, List<IndigoObject> fragments, Consumer<IndigoObject> consumer) throws FragmentsOverlapException {
+        IndigoObject container = loadElementalComposition(elementalComposition);
+        return generateMolecules(container, fragments, consumer);
+    }
+
 
     /**
      * Generate all possible molecules with given elemental composition and containing given fragments
@@ -90,39 +560,376 @@ public class MoleculesGenerator {
      */
     public List<IndigoObject> generateMolecules(String elementalComposition, String fragments) throws FragmentsOverlapException {
         IndigoObject container = loadElementalComposition(elementalComposition);
+        return generateMolecules(container, loadFragments(fragments));
+    }
 
-
-        List<IndigoObject> fs = null;
-        if (fragments != null) {
-            String[] frags = fragments.split(" ");
-            fs = new LinkedList<>();
-            for (String frag : frags) {
-                fs.add(indigo.loadMolecule(frag));
-            }
-        }
-        return generateMolecules(container, fs);
+    /**
+     * Generate all possible molecules with given elemental composition and containing given fragments.
+     * Each molecule is passed to consumer as soon as it is generated, so molecules are not kept in memory.
+     * @param elementalComposition Elemental composition
+     * @param fragments Fragments separated by space
+     * @param consumer Consumer receiving generated molecules
+     * @return Count of generated molecules
+     */
+    public long generateMolecules(String elementalComposition, String fragments, Consumer<IndigoObject> consumer) throws FragmentsOverlapException {
+        IndigoObject container = loadElementalComposition(elementalComposition);
+        return generateMolecules(container, loadFragments(fragments), consumer);
     }
 
     /**
      * Generate all possible molecules with given elemental composition and containing given fragments.
      * @param container Elemental composition
-     * @param fragments List of non-overlapping fragments
+     * @param fragments List of fragments, they may share atoms
      * @return List of possible molecules
      * @throws FragmentsOverlapException
      */
     public List<IndigoObject> generateMolecules(IndigoObject container, List<IndigoObject> fragments) throws FragmentsOverlapException {
         List<IndigoObject> res = new LinkedList<>();
-        if (!areNonOverlapping(fragments)) {
-            throw new FragmentsOverlapException();
+        generateMolecules(container, fragments, res::add);
+        return res;
+    }
+
+    /**
+     * Generate all possible molecules with given elemental composition and containing given fragments.
+     * Each molecule is passed to consumer as soon as it is generated, so molecules are not kept in memory.
+     * @param container Elemental composition
+     * @param fragments List of fragments, they may share atoms
+     * @param consumer Consumer receiving generated molecules
+     * @return Count of generated molecules
+     * @throws FragmentsOverlapException
+     */
+    public long generateMolecules(IndigoObject container, List<IndigoObject> fragments, Consumer<IndigoObject> consumer) throws FragmentsOverlapException {
+        return search(container, fragments, mol -> consumer.accept(mol.toMolecule(indigo)));
+    }
+
+    /**
+     * Generate all possible molecules with given elemental composition and containing given fragments,
+     * passing them to writer which creates, formats and writes molecules in background.
+     * Writer is not closed.
+     * @param elementalComposition Elemental composition
+     * @param fragments Fragments separated by space
+     * @param writer Writer of molecules
+     * @return Count of generated molecules
+     */
+    public long generateMolecules(String elementalComposition, String fragments, MoleculeWriter writer) throws FragmentsOverlapException {
+        IndigoObject container = loadElementalComposition(elementalComposition);
+        return search(container, loadFragments(fragments), writer::accept);
+    }
+
+    /**
+     * Generate molecules passing them to writer with given formula, used for combined output of batch
+     */
+    long generateMolecules(String elementalComposition, String fragments, MoleculeWriter writer, String formula) throws FragmentsOverlapException {
+        IndigoObject container = loadElementalComposition(elementalComposition);
+        return search(container, loadFragments(fragments), mol -> writer.accept(mol, formula));
+    }
+
+    /**
+     * Generate all possible molecules with given elemental composition and containing given fragments,
+     * keeping them packed in one buffer. Indigo molecules are created only when entries of result are requested,
+     * so large results take a few dozen bytes per molecule.
+     * @param elementalComposition Elemental composition
+     * @param fragments Fragments separated by space
+     * @return Packed list of possible molecules
+     */
+    public PackedMoleculeSet generatePackedMolecules(String elementalComposition, String fragments) throws FragmentsOverlapException {
+        IndigoObject container = loadElementalComposition(elementalComposition);
+        PackedMoleculeSet res = new PackedMoleculeSet(indigo);
+        search(container, loadFragments(fragments), res::add);
+        res.trimToSize();
+        return res;
+    }
+
+    /**
+     * Generate all possible molecules of several elemental compositions, e.g. a family of compositions differing
+     * in count of hydrogens (C6H6, C6H8, C6H10) or all compositions of a mass window.
+     * @param elementalCompositions Elemental compositions
+     * @param fragments Fragments separated by space, prescribed for all compositions
+     * @return Lists of possible molecules of each composition, in order of compositions
+     * @see #generateMolecules(Collection, String, BiConsumer)
+     */
+    public Map<String, List<IndigoObject>> generateMolecules(Collection<String> elementalCompositions, String fragments) throws FragmentsOverlapException {
+        Map<String, List<IndigoObject>> res = new LinkedHashMap<>();
+        for (String composition : elementalCompositions) {
+            res.put(composition, new ArrayList<>());
+        }
+        generateMolecules(elementalCompositions, fragments, (composition, mol) -> res.get(composition).add(mol));
+        return res;
+    }
+
+    /**
+     * Generate all possible molecules of several elemental compositions. Compositions with the same heavy atoms
+     * share one search: the tree of bonds between heavy atoms is traversed once with the lowest count of hydrogens
+     * and each connected state is passed to the composition having its count of hydrogens.
+     * Each molecule is passed to consumer as soon as it is generated.
+     * @param elementalCompositions Elemental compositions
+     * @param fragments Fragments separated by space, prescribed for all compositions
+     * @param consumer Consumer receiving composition (as given in the list) and its generated molecule
+     * @return Counts of generated molecules of each composition, in order of compositions
+     */
+    public Map<String, Long> generateMolecules(Collection<String> elementalCompositions, String fragments,
+                                               BiConsumer<String, IndigoObject> consumer) throws FragmentsOverlapException {
+        Map<String, Long> res = new LinkedHashMap<>();
+        // Compositions by heavy atoms and count of hydrogens
+        Map<Map<String, Integer>, TreeMap<Integer, List<String>>> skeletons = new LinkedHashMap<>();
+        for (String composition : elementalCompositions) {
+            res.put(composition, 0L);
+            Map<String, Integer> heavyAtoms = new TreeMap<>(parseElementalComposition(composition));
+            Integer hydrogens = heavyAtoms.remove("H");
+            heavyAtoms.values().removeIf(count -> count == 0);
+            skeletons.computeIfAbsent(heavyAtoms, k -> new TreeMap<>())
+                    .computeIfAbsent(hydrogens == null ? 0 : hydrogens, k -> new ArrayList<>())
+                    .add(composition);
+        }
+        for (Map.Entry<Map<String, Integer>, TreeMap<Integer, List<String>>> skeleton : skeletons.entrySet()) {
+            TreeMap<Integer, List<String>> byHydrogens = skeleton.getValue();
+            Map<String, Integer> counts = new LinkedHashMap<>(skeleton.getKey());
+            counts.put("H", byHydrogens.firstKey());
+            int[] hydrogenCounts = byHydrogens.keySet().stream().mapToInt(Integer::intValue).toArray();
+            search(loadElementalComposition(counts), loadFragments(fragments), mol -> {
+                for (String composition : byHydrogens.get(mol.countHydrogens())) {
+                    consumer.accept(composition, mol.toMolecule(indigo));
+                    res.merge(composition, 1L, Long::sum);
+                }
+            }, null, null, hydrogenCounts);
+        }
+        return res;
+    }
+
+    /**
+     * Count all possible molecules with given elemental composition and containing given fragments.
+     * Molecules are not created, only counted.
+     * @param elementalComposition Elemental composition
+     * @param fragments Fragments separated by space
+     * @return Count of molecules with breakdowns by count of rings and maximal bond order
+     */
+    public MoleculesCount countMolecules(String elementalComposition, String fragments) throws FragmentsOverlapException {
+        IndigoObject container = loadElementalComposition(elementalComposition);
+        return countMolecules(container, loadFragments(fragments));
+    }
+
+    /**
+     * Count all possible molecules with given elemental composition and containing given fragments.
+     * Molecules are not created, only counted.
+     * @param container Elemental composition
+     * @param fragments List of fragments, they may share atoms
+     * @return Count of molecules with breakdowns by count of rings and maximal bond order
+     * @throws FragmentsOverlapException
+     */
+    public MoleculesCount countMolecules(IndigoObject container, List<IndigoObject> fragments) throws FragmentsOverlapException {
+        MoleculesCount res = new MoleculesCount();
+        search(container, fragments, res::add);
+        return res;
+    }
+
+    /**
+     * Generate all possible molecules with given elemental composition and containing given fragments,
+     * periodically saving state of generation to checkpoint. If checkpoint exists, generation is resumed from it
+     * and only molecules generated after the checkpoint was saved are passed to consumer
+     * (so output should be truncated to {@link Checkpoint#getOutputPosition()} before resuming).
+     * Checkpoint is deleted when generation completes. Generation with checkpoints is always sequential.
+     * @param elementalComposition Elemental composition
+     * @param fragments Fragments separated by space
+     * @param consumer Consumer receiving generated molecules
+     * @param checkpoint Checkpoint
+     * @return Total count of generated molecules, including ones generated before resuming
+     * @throws IOException If checkpoint can not be read or saved
+     */
+    public long generateMolecules(String elementalComposition, String fragments, Consumer<IndigoObject> consumer, Checkpoint checkpoint) throws FragmentsOverlapException, IOException {
+        IndigoObject container = loadElementalComposition(elementalComposition);
+        try {
+            return search(container, loadFragments(fragments), mol -> consumer.accept(mol.toMolecule(indigo)), checkpoint);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private long search(IndigoObject container, List<IndigoObject> fragments, Consumer<SearchState> acceptor) throws FragmentsOverlapException {
+        return search(container, fragments, acceptor, null);
+    }
+
+    /**
+     * Generate molecules with given elemental composition and containing given fragments until all molecules
+     * are generated or a limit given in options is reached.
+     * @param elementalComposition Elemental composition
+     * @param fragments Fragments separated by space
+     * @param options Limits of generation
+     * @return Generated molecules and flag telling if they are all possible molecules
+     */
+    public GenerationResult generateMolecules(String elementalComposition, String fragments, GenerationOptions options) throws FragmentsOverlapException {
+        List<IndigoObject> res = new ArrayList<>();
+        GenerationResult result = generateMolecules(elementalComposition, fragments, res::add, options);
+        return new GenerationResult(res, result.getCount(), result.getStopReason());
+    }
+
+    /**
+     * Generate molecules with given elemental composition and containing given fragments until all molecules
+     * are generated or a limit given in options is reached, passing each molecule to consumer.
+     * @param elementalComposition Elemental composition
+     * @param fragments Fragments separated by space
+     * @param consumer Consumer receiving generated molecules
+     * @param options Limits of generation
+     * @return Count of generated molecules and flag telling if they are all possible molecules
+     */
+    public GenerationResult generateMolecules(String elementalComposition, String fragments, Consumer<IndigoObject> consumer, GenerationOptions options) throws FragmentsOverlapException {
+        IndigoObject container = loadElementalComposition(elementalComposition);
+        Search search = search(container, loadFragments(fragments), mol -> consumer.accept(mol.toMolecule(indigo)), null, options);
+        return new GenerationResult(null, search.count, search.stopReason);
+    }
+
+    private long search(IndigoObject container, List<IndigoObject> fragments, Consumer<SearchState> acceptor, Checkpoint checkpoint) throws FragmentsOverlapException {
+        return search(container, fragments, acceptor, checkpoint, null).count;
+    }
+
+    private Search search(IndigoObject container, List<IndigoObject> fragments, Consumer<SearchState> acceptor, Checkpoint checkpoint,
+                          GenerationOptions options) throws FragmentsOverlapException {
+        return search(container, fragments, acceptor, checkpoint, options, null);
+    }
+
+    /**
+     * @param hydrogenCounts Counts of hydrogens of accepted molecules, the lowest of them should be the count
+     *                       of hydrogens in container; null to accept only count of container
+     */
+    private Search search(IndigoObject container, List<IndigoObject> fragments, Consumer<SearchState> acceptor, Checkpoint checkpoint,
+                          GenerationOptions options, int[] hydrogenCounts) throws FragmentsOverlapException {
+        if (checkpoint != null && engine == Engine.LEVELS) {
+            throw new IllegalStateException("Generation with checkpoints is not supported by " + Engine.LEVELS + " engine");
         }
-        IndigoObject restrictedContainer = restrictContainer(container, fragments);
+        List<IndigoObject> placed = placedFragments(fragments);
+        IndigoObject restrictedContainer = restrictContainer(container, placed);
 
         int[] stats = processContainer(restrictedContainer);
         int maxOpenings = stats[MAX_OPENINGS_INDEX];
         int nH          = stats[NH_INDEX];
 
         logger.trace("Initial molecule: " + bondsToString(restrictedContainer));
-        generateMol(restrictedContainer, false, nH, maxOpenings, res, new HashSet<>());
+        SearchState initial = SearchState.fromMolecule(restrictedContainer);
+        Search search = new Search(nH, maxOpenings, initial, acceptor, parallelism > 1 && checkpoint == null);
+        search.limit(options);
+        if (placed != null && placed.size() < fragments.size()) {
+            search.queries = new ArrayList<>();
+            for (IndigoObject fragment : fragments) {
+                if (!placed.contains(fragment)) {
+                    search.queries.add(new SubstructureQuery(fragment));
+                }
+            }
+            logger.info("Fragments " + search.queries + " overlap with placed fragments, they are matched in generated molecules");
+        }
+        if (hydrogenCounts != null) {
+            search.hydrogenTargets = new boolean[Arrays.stream(hydrogenCounts).max().orElse(nH) + 1];
+            for (int count : hydrogenCounts) {
+                search.hydrogenTargets[count] = true;
+            }
+        }
+        if (search.constraints != null && !search.constraints.allows(initial)) {
+            logger.info("Fragments violate constraints, no molecules are generated");
+        } else if (checkpoint != null) {
+            try {
+                searchWithCheckpoints(initial, search, checkpoint);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else if (search.engine == Engine.LEVELS) {
+            searchByLevels(initial, search);
+        } else if (search.parallel) {
+            getPool().invoke(new SubtreeTask(initial, 0, search));
+        } else {
+            generateMol(initial, false, 0, search);
+        }
+        if (search.validatedKeys != null) {
+            logger.info("Validated canonical keys of " + search.validatedKeys.size() + " states, "
+                    + search.splitSmiles.size() + " canonical smiles identify several states");
+        }
+        if (search.stopReason != null) {
+            logger.info("Generation stopped (" + search.stopReason + ") after " + search.count + " molecules");
+        }
+        return search;
+    }
+
+    /**
+     * Expand states level by level. States of the next level are collected and deduplicated in a new visited set,
+     * states and visited set of the expanded level are dropped.
+     */
+    private void searchByLevels(SearchState initial, Search search) {
+        List<SearchState> level = Collections.singletonList(initial);
+        int depth = 0;
+        while (!level.isEmpty() && search.stopReason == null) {
+            search.nextLevel = new ConcurrentLinkedQueue<>();
+            search.visited = visitedSetFactory.get();
+            if (stats != null) {
+                stats.visitedSet(search.visited);
+            }
+            int levelDepth = depth;
+            if (search.parallel) {
+                List<SearchState> states = level;
+                getPool().invoke(ForkJoinTask.adapt(() -> states.parallelStream()
+                        .forEach(state -> generateMol(state, false, levelDepth, search))));
+            } else {
+                for (SearchState state : level) {
+                    generateMol(state, false, levelDepth, search);
+                }
+            }
+            logger.debug("Level " + depth + ": " + level.size() + " states expanded, " + search.nextLevel.size() + " states in next level");
+            level = new ArrayList<>(search.nextLevel);
+            depth++;
+        }
+    }
+
+    /**
+     * Expand states from explicit frontier instead of recursion, so the whole state of search can be saved
+     * between two expansions.
+     */
+    private void searchWithCheckpoints(SearchState initial, Search search, Checkpoint checkpoint) throws IOException {
+        search.frontier = new ArrayDeque<>();
+        // Visited sets with Java keys and with smiles are not interchangeable
+        String engineName = search.usesJavaKeys() ? search.engine.name() + ":" + StateKey.JAVA : search.engine.name();
+        if (search.constraints != null) {
+            engineName += " " + search.constraints;
+        }
+        if (search.queries != null) {
+            engineName += " " + search.queries;
+        }
+        if (search.shardCount > 1) {
+            engineName += " shard " + search.shardIndex + "/" + search.shardCount;
+        }
+        if (checkpoint.exists()) {
+            search.count = checkpoint.restore(engineName, search.nH, initial, search.frontier, search.visited, search.accepted);
+            logger.info("Resuming from checkpoint: " + search.count + " molecules, " + search.frontier.size() + " states in frontier");
+        } else {
+            search.frontier.push(new Checkpoint.Node(initial, false, 0));
+        }
+        long lastSave = System.currentTimeMillis();
+        while (!search.frontier.isEmpty()) {
+            Checkpoint.Node node = search.frontier.pop();
+            generateMol(node.state, node.extraAtoms, node.depth, search);
+            long now = System.currentTimeMillis();
+            if (now - lastSave >= checkpoint.getPeriodMillis() && !search.frontier.isEmpty()) {
+                checkpoint.save(engineName, search.nH, initial, search.count, search.frontier, search.visited, search.accepted);
+                lastSave = now;
+            }
+        }
+        checkpoint.delete();
+    }
+
+    /**
+     * Choose fragments which are placed in initial state: fragments are taken from the largest one if they share
+     * no elements with already chosen fragments, so any molecule containing chosen fragments contains them
+     * at disjoint atoms. Other fragments are matched in accepted molecules.
+     * @return Chosen fragments, null if there are no fragments
+     */
+    private List<IndigoObject> placedFragments(List<IndigoObject> fragments) {
+        if (fragments == null || areNonOverlapping(fragments)) {
+            return fragments;
+        }
+        List<IndigoObject> bySize = new ArrayList<>(fragments);
+        bySize.sort(Comparator.comparingInt(IndigoObject::countAtoms).reversed());
+        List<IndigoObject> res = new ArrayList<>();
+        for (IndigoObject fragment : bySize) {
+            res.add(fragment);
+            if (!areNonOverlapping(res)) {
+                res.remove(res.size() - 1);
+            }
+        }
         return res;
     }
 
@@ -157,6 +964,18 @@ public class MoleculesGenerator {
         return disjunctCount == allEls.size();
     }
 
+    private List<IndigoObject> loadFragments(String fragments) {
+        List<IndigoObject> fs = null;
+        if (fragments != null) {
+            String[] frags = fragments.split(" ");
+            fs = new LinkedList<>();
+            for (String frag : frags) {
+                fs.add(indigo.loadMolecule(frag));
+            }
+        }
+        return fs;
+    }
+
     private int[] processContainer(IndigoObject acontainer) {
         String symbol;
         int maxOpenings = 0;
@@ -273,112 +1092,265 @@ public class MoleculesGenerator {
         return res;
     }
 
-    private void generateMol(IndigoObject acontainer,
+    private void generateMol(SearchState acontainer,
                              boolean extraAtoms,
-                             int nH,
-                             int maxOpenings,
-                             List<IndigoObject> accumulator,
-                             Set<String> m)  {
+                             int depth,
+                             Search search)  {
 		/*We check that the atoms are connected in the same molecules
 		 * this is, they are not separated fragments*/
-		/*We add hydrogens in order to check if the molecule is saturated.
+		/*We count implicit hydrogens in order to check if the molecule is saturated.
 		 * We will accept the molecule if the number of hydrogens necessary to saturate
 		 * is the same as the hydrogens in the original formula*/
-        IndigoObject acprotonate = acontainer.clone();
-        int bondCount = 0;
-        boolean isComplete = false;
-
-        if(acprotonate.countHydrogens() == nH){
-            isComplete = isSaturated(acprotonate);
+        if (search.shouldStop()) {
+            return;
+        }
+        GenerationStats stats = search.stats;
+        long started = stats != null ? System.nanoTime() : 0;
+        boolean isComplete = search.hydrogenTargets != null ? search.hasTargetHydrogens(acontainer) : isSaturated(acontainer, search.nH);
+        if (stats != null) {
+            stats.saturationCheckNanos.add(System.nanoTime() - started);
+            stats.nodesExpanded.increment();
+            stats.depth(depth);
         }
 
         if (isComplete && !extraAtoms) {
-            if (acprotonate.countComponents() == 1) {
-                    accumulator.add(acprotonate);
-            }
-            for (IndigoObject b : acprotonate.iterateBonds()) {
-                bondCount += b.bondOrder();
+            // Deeper states belong to the shard of their ancestor of shard depth
+            if (acontainer.countComponents() == 1 && (depth >= search.shardDepth || search.ownsShard(acontainer))) {
+                search.accept(acontainer);
             }
-            if (maxOpenings > bondCount * 2) {
-                generateMol(acontainer, true, nH, maxOpenings, accumulator, m);
+            int bondCount = acontainer.bondOrderSum();
+            if (search.maxOpenings > bondCount * 2) {
+                descend(acontainer, true, depth, search);
             }
         } else {
-            ArrayList<SD> extBondlist = extendMol(acontainer);
+            // Bonds of fragments are fixed, atoms are distinguished by them
+            ArrayList<SD> extBondlist = extendMol(acontainer, search.engine == Engine.ORDERLY || search.root.bondOrderSum() > 0 ? search.root : null);
+            List<SubtreeTask> tasks = search.parallel && search.nextLevel == null && depth < PARALLEL_SPLIT_DEPTH ? new ArrayList<>() : null;
+            Set<GraphCanonizer.Certificate> children = search.engine == Engine.ORDERLY ? new HashSet<>() : null;
+            if (stats != null) {
+                stats.extensions.add(extBondlist.size());
+            }
 
-            IndigoObject molExtension;
+            SearchState molExtension;
             for (SD sourceDest : extBondlist) {
-                molExtension = acontainer.clone();
-                increaseBondOrder(molExtension, sourceDest.s, sourceDest.d);
-                String canStr =  molExtension.canonicalSmiles();
-                if (!m.contains(canStr)) {
-                    m.add(canStr);
-                    generateMol(molExtension, false, nH, maxOpenings, accumulator,  m);
+                if (search.stopReason != null) {
+                    break;
+                }
+                molExtension = acontainer.copy();
+                if (!increaseBondOrder(molExtension, sourceDest.s, sourceDest.d)) {
+                    continue;
+                }
+                if (stats != null) {
+                    stats.clones.increment();
+                }
+                if (search.constraints != null && !search.constraints.allows(molExtension, sourceDest.s, sourceDest.d)
+                        || !isFeasible(molExtension, search.nH, search.maxOpenings)
+                        || !search.canContainQueries(molExtension)) {
+                    if (stats != null) {
+                        stats.pruned.increment();
+                    }
+                    continue;
                 }
+                if (depth + 1 == search.shardDepth && !search.ownsShard(molExtension)) {
+                    continue;
+                }
+                if (stats != null) {
+                    stats.canonicalizations.increment();
+                    started = System.nanoTime();
+                }
+                boolean isNew;
+                if (children != null) {
+                    // Equivalent extensions of the same state give the same child, it is processed once
+                    GraphCanonizer.Certificate form = canonicalAugmentation(molExtension, sourceDest.s, sourceDest.d, search.root);
+                    isNew = form != null && children.add(form);
+                } else if (search.usesJavaKeys()) {
+                    long[] key = canonicalKey(molExtension);
+                    if (search.validatedKeys != null) {
+                        search.validate(key, molExtension);
+                    }
+                    isNew = search.visited.add(key);
+                } else {
+                    String canStr = canonicalize(molExtension, search.indigo());
+                    isNew = search.visited.add(canStr);
+                }
+                if (stats != null) {
+                    stats.canonicalizationNanos.add(System.nanoTime() - started);
+                    if (!isNew) {
+                        stats.duplicates.increment();
+                    }
+                }
+                if (!isNew) {
+                    continue;
+                }
+                if (tasks != null) {
+                    tasks.add(new SubtreeTask(molExtension, depth + 1, search));
+                } else {
+                    descend(molExtension, false, depth + 1, search);
+                }
+            }
+            if (tasks != null) {
+                ForkJoinTask.invokeAll(tasks);
             }
         }
     }
 
-    private IndigoObject getBond(IndigoObject mol, int a1index, int a2index) {
-        for (IndigoObject bond : mol.iterateBonds()) {
-            int sourceIndex = bond.source().index();
-            int destIndex   = bond.destination().index();
-
-            if (sourceIndex == a1index && destIndex == a2index ||
-                    sourceIndex == a2index && destIndex == a1index) {
-                return bond;
+    private void descend(SearchState state, boolean extraAtoms, int depth, Search search) {
+        if (search.nextLevel != null) {
+            // State with extra atoms is the same state expanded further, it belongs to the current level
+            if (extraAtoms) {
+                generateMol(state, true, depth, search);
+            } else {
+                search.nextLevel.add(state);
             }
+        } else if (search.frontier != null) {
+            search.frontier.push(new Checkpoint.Node(state, extraAtoms, depth));
+        } else {
+            generateMol(state, extraAtoms, depth, search);
         }
-        return null;
     }
 
     private void addBond(IndigoObject mol, int source, int destination, int order) {
         mol.getAtom(source).addBond(mol.getAtom(destination), order);
     }
 
-    private ArrayList<SD> extendMol(IndigoObject ac) {
+    ArrayList<SD> extendMol(SearchState ac) {
+        return extendMol(ac, null);
+    }
+
+    /**
+     * Find pairs of unsaturated atoms whose bond can be increased. Twin atoms (see {@link SearchState#twinClasses})
+     * can be swapped by an automorphism of state, so all pairs taking atoms from the same two classes of twins
+     * give isomorphic extensions. Only one pair is returned for them: the first atoms of the two classes,
+     * or the first and the second atom if both atoms are from one class.
+     * <p>
+     * Bonds of initial state are bonds of fragments, their orders are fixed, so pairs of atoms bonded in initial state
+     * are not returned. Other atoms of fragments still can be bonded, e.g. closing a ring through fragment.
+     * @param ac State
+     * @param root Initial state if it has bonds or if its bonds are distinguished from added bonds (orderly engine),
+     *             null otherwise
+     * @return Pairs of atoms
+     */
+    ArrayList<SD> extendMol(SearchState ac, SearchState root) {
         int vCount = ac.countAtoms();
-        int [] bondCounts = new int [vCount];
-        for (IndigoObject b : ac.iterateBonds()) {
-            int bo = b.bondOrder();
-            bondCounts[b.source().index()] += bo;
-            bondCounts[b.destination().index()] += bo;
+        int[] twins = ac.twinClasses(root);
+        int[] seconds = new int[vCount];
+        Arrays.fill(seconds, -1);
+        int[] unsaturated = new int[vCount];
+        int uCount = 0;
+        for (int i = 0; i < vCount; i++) {
+            if (twins[i] != i && seconds[twins[i]] < 0) {
+                seconds[twins[i]] = i;
+            }
+            if (!ac.isSaturated(i) && (twins[i] == i || seconds[twins[i]] == i)) {
+                unsaturated[uCount++] = i;
+            }
         }
-        ArrayList<SD> bondList = new ArrayList<>();
-
-        for (int i = 0; i < vCount; i++){
-            IndigoObject s = ac.getAtom(i);
-            if (VALENCES.get(s.symbol()) == bondCounts[i]) continue;
-            for (int j = i+1; j < vCount; j++){
-                IndigoObject d = ac.getAtom(j);
-                if (VALENCES.get(d.symbol()) == bondCounts[j]) continue;
-                bondList.add(new SD(i, j));
+        ArrayList<SD> bondList = new ArrayList<>(uCount * (uCount - 1) / 2);
+        for (int i = 0; i < uCount; i++){
+            int s = unsaturated[i];
+            for (int j = i+1; j < uCount; j++){
+                int d = unsaturated[j];
+                boolean representative = twins[d] == d ?
+                        twins[s] == s :
+                        twins[d] == s && seconds[s] == d;
+                if (representative && (root == null || root.bondOrder(s, d) == 0)) {
+                    bondList.add(new SD(s, d));
+                }
             }
         }
         return bondList;
     }
 
-    private boolean isSaturated(IndigoObject mol) {
-        int atomCount = mol.countAtoms();
-        int[] vals = new int[atomCount];
+    /**
+     * @return True iff count of implicit hydrogens of molecule is the same as count of hydrogens in elemental composition
+     */
+    boolean isSaturated(SearchState mol, int nH) {
+        return mol.countHydrogens() == nH;
+    }
 
-        for (int atomIndex = 0; atomIndex < atomCount; atomIndex++) {
-            vals[atomIndex]  = mol.getAtom(atomIndex).valence();
+    /**
+     * Check necessary conditions for molecule or any molecule obtained from it by adding bonds to be accepted.
+     * Sum of bond orders of accepted molecule is at most half of max openings (equal if all atoms take their maximal
+     * valences), its hydrogens count should be reachable and its atoms should be connected within remaining bonds.
+     * Conditions depend only on the state, so pruned state would be pruned on any path to it.
+     * @return False if search from the molecule can not give any accepted molecule
+     */
+    boolean isFeasible(SearchState mol, int nH, int maxOpenings) {
+        int openings = maxOpenings - 2 * mol.bondOrderSum();
+        if (openings < 0) {
+            return false;
+        }
+        if (mol.maxFutureHydrogens() < nH) {
+            return false;
         }
+        return mol.canBeConnected(openings / 2);
+    }
 
-        for (IndigoObject bond : mol.iterateBonds()) {
-            IndigoObject source = bond.source();
-            IndigoObject dest   = bond.destination();
-            int bo = bond.bondOrder();
+    boolean increaseBondOrder(SearchState mol, int source, int dest) {
+        return mol.increaseBondOrder(source, dest);
+    }
+
+    String canonicalize(SearchState mol, Indigo indigo) {
+        return mol.toMolecule(indigo).canonicalSmiles();
+    }
+
+    /**
+     * @return Canonical key of state computed in Java, equal for isomorphic states
+     */
+    long[] canonicalKey(SearchState mol) {
+        return new GraphCanonizer(mol, null).canonize().certificate.pack();
+    }
 
-            vals[source.index()] -= bo;
-            vals[dest.index()]   -= bo;
+    /**
+     * Check that molecule was obtained from its canonical parent, i.e. that increased bond (s, d) is in the same orbit
+     * as the canonical last bond of molecule. Canonical last bond is the bond added during search
+     * whose atoms have the greatest canonical ranks.
+     * @param mol Extended molecule
+     * @param s Source atom of increased bond
+     * @param d Destination atom of increased bond
+     * @param root Initial state of search
+     * @return Canonical form of molecule if extension is canonical, null otherwise
+     */
+    GraphCanonizer.Certificate canonicalAugmentation(SearchState mol, int s, int d, SearchState root) {
+        GraphCanonizer canonizer = new GraphCanonizer(mol, root);
+        GraphCanonizer.Labeling labeling = canonizer.canonize();
+        int[] ranks = labeling.ranks;
+
+        int lastS = -1;
+        int lastD = -1;
+        int bestHigh = -1;
+        int bestLow = -1;
+        int vCount = mol.countAtoms();
+        for (int i = 0; i < vCount; i++) {
+            for (int j = i + 1; j < vCount; j++) {
+                if (mol.bondOrder(i, j) <= root.bondOrder(i, j)) continue;
+                int high = Math.max(ranks[i], ranks[j]);
+                int low  = Math.min(ranks[i], ranks[j]);
+                if (high > bestHigh || high == bestHigh && low > bestLow) {
+                    bestHigh = high;
+                    bestLow = low;
+                    lastS = i;
+                    lastD = j;
+                }
+            }
         }
 
-        int vacant = 0;
-        for (int val : vals) {
-            vacant += val;
+        if (lastS == Math.min(s, d) && lastD == Math.max(s, d)) {
+            return labeling.certificate;
         }
-        return vacant == mol.countHydrogens();
+        // Atoms from one orbit are always in one cell of equitable partition
+        int[] cells = labeling.cells;
+        boolean sameCells = cells[s] == cells[lastS] && cells[d] == cells[lastD] ||
+                cells[s] == cells[lastD] && cells[d] == cells[lastS];
+        if (!sameCells) {
+            return null;
+        }
+        canonizer.mark(s, d);
+        GraphCanonizer.Certificate marked = canonizer.canonize().certificate;
+        canonizer.unmark();
+        canonizer.mark(lastS, lastD);
+        GraphCanonizer.Certificate markedLast = canonizer.canonize().certificate;
+        return marked.equals(markedLast) ? labeling.certificate : null;
     }
 
     /**
@@ -387,6 +1359,28 @@ public class MoleculesGenerator {
      * @return IndigoObject containing atoms in quantities given in elemental composition.
      */
     private IndigoObject loadElementalComposition(String ec) {
+        return loadElementalComposition(parseElementalComposition(ec));
+    }
+
+    private IndigoObject loadElementalComposition(Map<String, Integer> counts) {
+        IndigoObject res = indigo.createMolecule();
+
+        for (Map.Entry<String, Integer> elementCount : counts.entrySet()) {
+            if (!elementCount.getKey().equals("H")) {
+                addNAtoms(res, elementCount.getKey(), elementCount.getValue());
+            }
+        }
+
+        addNAtoms(res, "H", counts.getOrDefault("H", 0));
+        return res;
+    }
+
+    /**
+     * Parse elemental composition of format {elname_1}{elcount_1}...{elname_n}{elcount_n}.
+     * @param ec Elemental composition
+     * @return Counts of elements in order of their first occurrence, counts of repeated elements are summed
+     */
+    static Map<String, Integer> parseElementalComposition(String ec) {
         String regex = "[0-9]+";
         String[] split = ec.split(regex);
         Pattern p = Pattern.compile(regex);
@@ -400,20 +1394,10 @@ public class MoleculesGenerator {
         if (nums.size() != els.size()) {
             throw new RuntimeException("Each element quantity should be specified");
         }
-        IndigoObject res = indigo.createMolecule();
-
-        int hydCount = 0;
+        Map<String, Integer> res = new LinkedHashMap<>();
         for (int i = 0; i < els.size(); i++) {
-            String el = els.get(i);
-            int cnt = Integer.valueOf(nums.get(i));
-            if (!el.equals("H")) {
-                addNAtoms(res, el, cnt);
-            } else {
-                hydCount = cnt;
-            }
+            res.merge(els.get(i), Integer.valueOf(nums.get(i)), Integer::sum);
         }
-
-        addNAtoms(res, "H", hydCount);
         return res;
     }
 
@@ -423,20 +1407,6 @@ public class MoleculesGenerator {
         }
     }
 
-    private void increaseBondOrder(IndigoObject mol, int source, int dest) {
-        //Only one object bond is used, and recycled at every time we use it
-        IndigoObject bondAdd = getBond(mol, source, dest);
-        if(bondAdd == null){
-            addBond(mol, source, dest, 1);
-        } else {
-            int ord = bondAdd.bondOrder();
-            //TODO: to figure out why there is such limitation
-            if (ord < 3) {
-                bondAdd.setBondOrder(ord + 1);
-            }
-        }
-    }
-
     public String bondsToString(IndigoObject mol) {
         StringBuilder res = new StringBuilder();
         for (IndigoObject bond : mol.iterateBonds()) {
@@ -0,0 +1,114 @@
+package org.indigomg;
+
+import com.ggasoftware.indigo.Indigo;
+import com.ggasoftware.indigo.IndigoObject;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Compact list of generated molecules. Molecules are kept in one growing byte array as element codes and bond lists
+ * (see {@link SearchState#pack(byte[], int)}), typically a few dozen bytes per molecule, instead of native Indigo objects
+ * which are freed only when their wrappers are garbage collected. Indigo molecule or smiles of an entry is built
+ * only when it is requested, so callers should not keep molecules they no longer need.
+ * <p>
+ * List is filled by generator ({@link MoleculesGenerator#generatePackedMolecules(String, String)}) and is read-only
+ * for callers. It is not thread-safe, molecules are created with the Indigo instance of generator.
+ */
+public class PackedMoleculeSet extends AbstractList<IndigoObject> implements RandomAccess {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Indigo indigo;
+    private byte[] data = new byte[INITIAL_CAPACITY * 32];
+    private int used;
+    private int[] offsets = new int[INITIAL_CAPACITY];
+    private int size;
+
+    PackedMoleculeSet(Indigo indigo) {
+        this.indigo = indigo;
+    }
+
+    void add(SearchState mol) {
+        int required = mol.packedSize();
+        if (data.length - used < required) {
+            long capacity = Math.max(2L * data.length, (long) used + required);
+            if (capacity > Integer.MAX_VALUE - 8) {
+                capacity = Integer.MAX_VALUE - 8;
+                if (capacity - used < required) {
+                    throw new IllegalStateException("Packed molecules do not fit in 2 GB");
+                }
+            }
+            data = Arrays.copyOf(data, (int) capacity);
+        }
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[size++] = used;
+        used = mol.pack(data, used);
+        modCount++;
+    }
+
+    /**
+     * Release unused capacity of buffers
+     */
+    public void trimToSize() {
+        data = Arrays.copyOf(data, used);
+        offsets = Arrays.copyOf(offsets, size);
+    }
+
+    /**
+     * Build molecule of entry
+     * @param index Index of entry
+     * @return New Indigo molecule
+     */
+    @Override
+    public IndigoObject get(int index) {
+        return state(index).toMolecule(indigo);
+    }
+
+    /**
+     * @param index Index of entry
+     * @return Smiles of molecule
+     */
+    public String smiles(int index) {
+        IndigoObject mol = get(index);
+        try {
+            return mol.smiles();
+        } finally {
+            mol.dispose();
+        }
+    }
+
+    /**
+     * @param index Index of entry
+     * @return Canonical smiles of molecule
+     */
+    public String canonicalSmiles(int index) {
+        IndigoObject mol = get(index);
+        try {
+            return mol.canonicalSmiles();
+        } finally {
+            mol.dispose();
+        }
+    }
+
+    SearchState state(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return SearchState.unpack(data, offsets[index]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Count of bytes taken by buffers, including unused capacity
+     */
+    public long getBufferBytes() {
+        return data.length + (long) offsets.length * Integer.BYTES;
+    }
+}
@@ -0,0 +1,535 @@
+package org.indigomg;
+
+import com.ggasoftware.indigo.Indigo;
+import com.ggasoftware.indigo.IndigoObject;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * State of the molecules generation search stored in primitive arrays.
+ * Heavy atoms are coded by indexes in {@link #SYMBOLS}, bonds are stored in a bond order matrix.
+ * Sums of bond orders of atoms, total sum of bond orders and count of implicit hydrogens are updated
+ * on each change of bond, so checks done for each state of search take constant time.
+ * IndigoObject is created from state only when it is really needed (canonicalization, output).
+ */
+final class SearchState {
+
+    /**
+     * Maximal order of bond between two atoms
+     */
+    static final int MAX_BOND_ORDER = 3;
+
+    /**
+     * Symbols of elements which can be used in search, index in this array is element code
+     */
+    static final String[] SYMBOLS;
+
+    /**
+     * Maximal valences of elements (as given in {@link MoleculesGenerator#VALENCES}) by element code
+     */
+    static final int[] MAX_VALENCES;
+
+    /**
+     * Allowed valences of elements which have several of them, other elements take only their maximal valence
+     */
+    static final Map<String, int[]> ALLOWED_VALENCES;
+
+    /**
+     * Implicit hydrogens count by element code and sum of bond orders of atom.
+     * Follows Indigo valence model: atom takes the lowest of its allowed valences which is not less than sum of bond orders.
+     */
+    private static final int[][] IMPLICIT_HYDROGENS;
+
+    /**
+     * Maximal implicit hydrogens count which atom can have after adding bonds to it,
+     * by element code and current sum of bond orders of atom
+     */
+    private static final int[][] MAX_FUTURE_HYDROGENS;
+
+    private static final Map<String, Integer> CODES = new HashMap<>();
+
+    static {
+        Map<String, int[]> allowedValences = new HashMap<>();
+        allowedValences.put("S", new int[] {2, 4, 6});
+        allowedValences.put("P", new int[] {3, 5});
+        ALLOWED_VALENCES = Collections.unmodifiableMap(allowedValences);
+
+        SYMBOLS = MoleculesGenerator.VALENCES.keySet().toArray(new String[0]);
+        Arrays.sort(SYMBOLS);
+        MAX_VALENCES = new int[SYMBOLS.length];
+        IMPLICIT_HYDROGENS = new int[SYMBOLS.length][];
+        MAX_FUTURE_HYDROGENS = new int[SYMBOLS.length][];
+        for (int code = 0; code < SYMBOLS.length; code++) {
+            String symbol = SYMBOLS[code];
+            CODES.put(symbol, code);
+            int maxValence = MoleculesGenerator.VALENCES.get(symbol);
+            int[] valences = ALLOWED_VALENCES.getOrDefault(symbol, new int[] {maxValence});
+            MAX_VALENCES[code] = maxValence;
+            IMPLICIT_HYDROGENS[code] = new int[maxValence + 1];
+            for (int bondSum = 0; bondSum <= maxValence; bondSum++) {
+                int valence = maxValence;
+                for (int v : valences) {
+                    if (v >= bondSum) {
+                        valence = v;
+                        break;
+                    }
+                }
+                IMPLICIT_HYDROGENS[code][bondSum] = valence - bondSum;
+            }
+            MAX_FUTURE_HYDROGENS[code] = new int[maxValence + 1];
+            int maxHydrogens = 0;
+            for (int bondSum = maxValence; bondSum >= 0; bondSum--) {
+                maxHydrogens = Math.max(maxHydrogens, IMPLICIT_HYDROGENS[code][bondSum]);
+                MAX_FUTURE_HYDROGENS[code][bondSum] = maxHydrogens;
+            }
+        }
+    }
+
+    private final int[] elements;
+    private final byte[] orders;
+    private final int[] bondSums;
+    private int bondOrderSum;
+    private int hydrogens;
+
+    private SearchState(int[] elements, byte[] orders, int[] bondSums, int bondOrderSum, int hydrogens) {
+        this.elements = elements;
+        this.orders = orders;
+        this.bondSums = bondSums;
+        this.bondOrderSum = bondOrderSum;
+        this.hydrogens = hydrogens;
+    }
+
+    /**
+     * Create state with given atoms and without bonds
+     */
+    private static SearchState withoutBonds(int[] elements) {
+        int n = elements.length;
+        int hydrogens = 0;
+        for (int element : elements) {
+            hydrogens += implicitHydrogens(element, 0);
+        }
+        return new SearchState(elements, new byte[n * n], new int[n], 0, hydrogens);
+    }
+
+    /**
+     * @param symbol Symbol of element
+     * @return Code of element in states
+     * @throws IllegalArgumentException If valence of element is unknown
+     */
+    static int elementCode(String symbol) {
+        Integer code = CODES.get(symbol);
+        if (code == null) {
+            throw new IllegalArgumentException("Valence of element " + symbol + " is unknown");
+        }
+        return code;
+    }
+
+    /**
+     * Create state containing heavy atoms and bonds of given molecule.
+     * @param mol Molecule without explicit hydrogens
+     * @return State
+     */
+    static SearchState fromMolecule(IndigoObject mol) {
+        int atomsCount = mol.countAtoms();
+        int[] elements = new int[atomsCount];
+        Map<Integer, Integer> indexes = new HashMap<>();
+        int i = 0;
+        for (IndigoObject atom : mol.iterateAtoms()) {
+            indexes.put(atom.index(), i);
+            elements[i++] = elementCode(atom.symbol());
+        }
+        SearchState res = withoutBonds(elements);
+        for (IndigoObject bond : mol.iterateBonds()) {
+            int s = indexes.get(bond.source().index());
+            int d = indexes.get(bond.destination().index());
+            res.setBondOrder(s, d, bond.bondOrder());
+        }
+        return res;
+    }
+
+    /**
+     * Write state in compact binary form: atoms count, element codes and upper triangle of bond order matrix.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        int n = elements.length;
+        out.writeShort(n);
+        for (int element : elements) {
+            out.writeByte(element);
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                out.writeByte(orders[i * n + j]);
+            }
+        }
+    }
+
+    static SearchState readFrom(DataInput in) throws IOException {
+        int n = in.readShort();
+        int[] elements = new int[n];
+        for (int i = 0; i < n; i++) {
+            elements[i] = in.readByte();
+        }
+        SearchState res = withoutBonds(elements);
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                res.setBondOrder(i, j, in.readByte());
+            }
+        }
+        return res;
+    }
+
+    /**
+     * @return Count of bytes taken by state written with {@link #pack(byte[], int)}
+     */
+    int packedSize() {
+        return 3 + elements.length + 3 * countBonds();
+    }
+
+    /**
+     * Write state as list of bonds: atoms count, element codes, bonds count (two bytes) and for each bond
+     * its source, destination and order, all other values take one byte.
+     * @param buffer Buffer with at least {@link #packedSize()} bytes after offset
+     * @param offset Position in buffer
+     * @return Position after written state
+     * @throws IllegalStateException If state has more than 255 atoms
+     */
+    int pack(byte[] buffer, int offset) {
+        int n = elements.length;
+        if (n > 0xff) {
+            throw new IllegalStateException("Only states with less than 256 atoms can be packed");
+        }
+        int pos = offset;
+        buffer[pos++] = (byte) n;
+        for (int element : elements) {
+            buffer[pos++] = (byte) element;
+        }
+        int bondsPos = pos;
+        pos += 2;
+        int bonds = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                byte order = orders[i * n + j];
+                if (order != 0) {
+                    buffer[pos++] = (byte) i;
+                    buffer[pos++] = (byte) j;
+                    buffer[pos++] = order;
+                    bonds++;
+                }
+            }
+        }
+        buffer[bondsPos] = (byte) (bonds >>> 8);
+        buffer[bondsPos + 1] = (byte) bonds;
+        return pos;
+    }
+
+    /**
+     * Read state written by {@link #pack(byte[], int)}
+     */
+    static SearchState unpack(byte[] buffer, int offset) {
+        int pos = offset;
+        int n = buffer[pos++] & 0xff;
+        int[] elements = new int[n];
+        for (int i = 0; i < n; i++) {
+            elements[i] = buffer[pos++] & 0xff;
+        }
+        SearchState res = withoutBonds(elements);
+        int bonds = (buffer[pos] & 0xff) << 8 | buffer[pos + 1] & 0xff;
+        pos += 2;
+        for (int k = 0; k < bonds; k++) {
+            res.setBondOrder(buffer[pos] & 0xff, buffer[pos + 1] & 0xff, buffer[pos + 2]);
+            pos += 3;
+        }
+        return res;
+    }
+
+    SearchState copy() {
+        return new SearchState(elements, orders.clone(), bondSums.clone(), bondOrderSum, hydrogens);
+    }
+
+    int countAtoms() {
+        return elements.length;
+    }
+
+    int element(int atom) {
+        return elements[atom];
+    }
+
+    int bondOrder(int source, int dest) {
+        return orders[source * elements.length + dest];
+    }
+
+    int bondSum(int atom) {
+        return bondSums[atom];
+    }
+
+    /**
+     * @return True iff sum of bond orders of atom reached maximal valence of its element
+     */
+    boolean isSaturated(int atom) {
+        return bondSums[atom] == MAX_VALENCES[elements[atom]];
+    }
+
+    /**
+     * Increase order of bond between two atoms by one, adding bond if there was no bond.
+     * @return False if bond already has maximal order
+     */
+    boolean increaseBondOrder(int source, int dest) {
+        int ord = bondOrder(source, dest);
+        if (ord >= MAX_BOND_ORDER) {
+            return false;
+        }
+        setBondOrder(source, dest, ord + 1);
+        return true;
+    }
+
+    private void setBondOrder(int source, int dest, int order) {
+        int delta = order - bondOrder(source, dest);
+        orders[source * elements.length + dest] = (byte) order;
+        orders[dest * elements.length + source] = (byte) order;
+        hydrogens -= implicitHydrogens(elements[source], bondSums[source]) + implicitHydrogens(elements[dest], bondSums[dest]);
+        bondSums[source] += delta;
+        bondSums[dest] += delta;
+        hydrogens += implicitHydrogens(elements[source], bondSums[source]) + implicitHydrogens(elements[dest], bondSums[dest]);
+        bondOrderSum += delta;
+    }
+
+    /**
+     * @return Count of implicit hydrogens of all atoms
+     */
+    int countHydrogens() {
+        return hydrogens;
+    }
+
+    /**
+     * @return Count of bonds which still can be added to atom before it reaches maximal valence
+     */
+    int freeValence(int atom) {
+        return MAX_VALENCES[elements[atom]] - bondSums[atom];
+    }
+
+    /**
+     * @return Upper bound of implicit hydrogens count of any state obtained from this one by adding bonds.
+     * For elements with one valence it is the current count, atoms of S and P can gain hydrogens
+     * when they switch to higher valence.
+     */
+    int maxFutureHydrogens() {
+        int res = 0;
+        for (int i = 0; i < elements.length; i++) {
+            res += MAX_FUTURE_HYDROGENS[elements[i]][bondSums[i]];
+        }
+        return res;
+    }
+
+    static int implicitHydrogens(int element, int bondSum) {
+        int[] hydrogens = IMPLICIT_HYDROGENS[element];
+        return bondSum < hydrogens.length ? hydrogens[bondSum] : 0;
+    }
+
+    int bondOrderSum() {
+        return bondOrderSum;
+    }
+
+    /**
+     * @return Count of pairs of bonded atoms (bond of any order is counted once)
+     */
+    int countBonds() {
+        int n = elements.length;
+        int res = 0;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                if (orders[i * n + j] != 0) res++;
+            }
+        }
+        return res;
+    }
+
+    int maxBondOrder() {
+        int res = 0;
+        for (byte order : orders) {
+            if (order > res) res = order;
+        }
+        return res;
+    }
+
+    int countComponents() {
+        int n = elements.length;
+        boolean[] visited = new boolean[n];
+        int[] stack = new int[n];
+        int res = 0;
+        for (int start = 0; start < n; start++) {
+            if (visited[start]) continue;
+            res++;
+            int top = 0;
+            stack[top++] = start;
+            visited[start] = true;
+            while (top > 0) {
+                int a = stack[--top];
+                for (int b = 0; b < n; b++) {
+                    if (!visited[b] && orders[a * n + b] != 0) {
+                        visited[b] = true;
+                        stack[top++] = b;
+                    }
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Split atoms into classes of twins: atoms of the same element with the same bonds to all other atoms.
+     * Swapping two twins is an automorphism of state, being twins is an equivalence relation.
+     * @param root If not null, twins should also have the same bonds in this state
+     * @return Index of the first atom of class for each atom
+     */
+    int[] twinClasses(SearchState root) {
+        int n = elements.length;
+        int[] res = new int[n];
+        for (int i = 0; i < n; i++) {
+            res[i] = i;
+            for (int r = 0; r < i; r++) {
+                if (res[r] == r && areTwins(r, i, root)) {
+                    res[i] = r;
+                    break;
+                }
+            }
+        }
+        return res;
+    }
+
+    private boolean areTwins(int a, int b, SearchState root) {
+        if (elements[a] != elements[b] || bondSums[a] != bondSums[b]) {
+            return false;
+        }
+        int n = elements.length;
+        for (int k = 0; k < n; k++) {
+            if (k == a || k == b) continue;
+            if (orders[a * n + k] != orders[b * n + k]) {
+                return false;
+            }
+            if (root != null && root.orders[a * n + k] != root.orders[b * n + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the shortest path between two atoms which does not use the bond between them (breadth-first search).
+     * If atoms are bonded, the path and the bond form the smallest ring containing the bond.
+     * @param source First atom
+     * @param dest Second atom
+     * @param limit Maximal length of path which is searched
+     * @return Count of bonds in path, -1 if there is no path within limit
+     */
+    int shortestPath(int source, int dest, int limit) {
+        int n = elements.length;
+        int[] distances = new int[n];
+        Arrays.fill(distances, -1);
+        int[] queue = new int[n];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = source;
+        distances[source] = 0;
+        while (head < tail) {
+            int a = queue[head++];
+            if (distances[a] >= limit) {
+                break;
+            }
+            for (int b = 0; b < n; b++) {
+                if (distances[b] >= 0 || orders[a * n + b] == 0 || a == source && b == dest) continue;
+                if (b == dest) {
+                    return distances[a] + 1;
+                }
+                distances[b] = distances[a] + 1;
+                queue[tail++] = b;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return Cyclomatic number of state: count of independent rings, it never decreases when bonds are added
+     */
+    int countRings() {
+        return countBonds() - elements.length + countComponents();
+    }
+
+    /**
+     * Check if atoms of state can become one connected molecule after adding at most given count of bond orders.
+     * Components are found with union-find, joining k components needs at least k - 1 new bonds, each component
+     * needs a free valence for a new bond and all components together need 2 * (k - 1) free valences.
+     * @param increments Maximal count of bond order increments which can be done
+     * @return False if state and all states obtained from it by adding bonds are disconnected
+     */
+    boolean canBeConnected(int increments) {
+        int n = elements.length;
+        int[] parents = new int[n];
+        for (int i = 0; i < n; i++) {
+            parents[i] = i;
+        }
+        int components = n;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                if (orders[i * n + j] == 0) continue;
+                int a = find(parents, i);
+                int b = find(parents, j);
+                if (a != b) {
+                    parents[a] = b;
+                    components--;
+                }
+            }
+        }
+        if (components == 1) {
+            return true;
+        }
+        if (components - 1 > increments) {
+            return false;
+        }
+        int[] free = new int[n];
+        int totalFree = 0;
+        for (int i = 0; i < n; i++) {
+            free[find(parents, i)] += freeValence(i);
+            totalFree += freeValence(i);
+        }
+        for (int i = 0; i < n; i++) {
+            if (parents[i] == i && free[i] == 0) {
+                return false;
+            }
+        }
+        return totalFree >= 2 * (components - 1);
+    }
+
+    private static int find(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    /**
+     * Create molecule with atoms and bonds of this state. Atoms indexes are preserved.
+     * @param indigo Indigo instance used for creating molecule
+     * @return Molecule
+     */
+    IndigoObject toMolecule(Indigo indigo) {
+        int n = elements.length;
+        IndigoObject res = indigo.createMolecule();
+        IndigoObject[] atoms = new IndigoObject[n];
+        for (int i = 0; i < n; i++) {
+            atoms[i] = res.addAtom(SYMBOLS[elements[i]]);
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                int ord = orders[i * n + j];
+                if (ord != 0) {
+                    atoms[i].addBond(atoms[j], ord);
+                }
+            }
+        }
+        return res;
+    }
+}
@@ -0,0 +1,79 @@
+package org.indigomg;
+
+import com.ggasoftware.indigo.Indigo;
+import com.ggasoftware.indigo.IndigoObject;
+import org.apache.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Merge of outputs of shards (see {@link MoleculesGenerator#setShard(int, int)}) into one output without duplicates.
+ * Inputs are SDF files or files with one smiles per line (.smi, .can), optionally gzipped.
+ * Molecules are identified by canonical smiles, which are kept as 128 bit hashes.
+ */
+public class ShardMerger {
+    private static Logger logger = Logger.getLogger(ShardMerger.class);
+
+    private final Indigo indigo;
+
+    public ShardMerger(Indigo indigo) {
+        this.indigo = indigo;
+    }
+
+    /**
+     * Write molecules from all inputs to output, skipping molecules which were already written.
+     * @param inputs Outputs of shards
+     * @param output Writer of merged output, it is not closed
+     * @return Count of written molecules
+     * @throws IOException If input can not be read
+     */
+    public long merge(List<File> inputs, MoleculeWriter output) throws IOException {
+        VisitedSet written = new HashedVisitedSet();
+        long[] counts = new long[2];
+        for (File input : inputs) {
+            read(input, mol -> {
+                if (written.add(mol.canonicalSmiles())) {
+                    output.accept(SearchState.fromMolecule(mol));
+                    counts[0]++;
+                } else {
+                    counts[1]++;
+                }
+            });
+        }
+        logger.info("Merged " + inputs.size() + " shards: " + counts[0] + " molecules, " + counts[1] + " duplicates removed");
+        return counts[0];
+    }
+
+    /**
+     * Pass molecules of file to consumer one by one
+     */
+    private void read(File input, Consumer<IndigoObject> consumer) throws IOException {
+        String name = input.getName().toLowerCase();
+        InputStream in = new FileInputStream(input);
+        if (name.endsWith(".gz")) {
+            in = new GZIPInputStream(in);
+            name = name.substring(0, name.length() - 3);
+        }
+        boolean smiles = name.endsWith(".smi") || name.endsWith(".smiles") || name.endsWith(".can");
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            StringBuilder record = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (smiles) {
+                    if (!line.trim().isEmpty()) {
+                        consumer.accept(indigo.loadMolecule(line.trim()));
+                    }
+                } else if (line.equals("$$$$")) {
+                    consumer.accept(indigo.loadMolecule(record.toString()));
+                    record.setLength(0);
+                } else {
+                    record.append(line).append("\n");
+                }
+            }
+        }
+    }
+}
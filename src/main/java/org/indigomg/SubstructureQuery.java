@@ -0,0 +1,140 @@
+package org.indigomg;
+
+import com.ggasoftware.indigo.IndigoObject;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Fragment compiled for matching against states of search. State contains fragment if atoms of fragment can be mapped
+ * to distinct atoms of state with the same elements, so that each bond of fragment is mapped to a bond of the same order
+ * (state may have other bonds between mapped atoms, as with substructure search).
+ * <p>
+ * Atoms of fragment are matched in breadth-first order computed once, so each atom except the first atom of its
+ * component is looked for only among neighbours of an already mapped atom.
+ * <p>
+ * States of search can also be checked to still be able to contain fragment after their bond orders are increased,
+ * so states which can not lead to a molecule containing fragment are pruned during search.
+ */
+class SubstructureQuery {
+    private final SearchState fragment;
+    private final String smiles;
+
+    /**
+     * Atoms of fragment in matching order
+     */
+    private final int[] order;
+
+    /**
+     * For each position of matching order, position of its already mapped neighbour or -1 for first atom of component
+     */
+    private final int[] anchors;
+
+    SubstructureQuery(IndigoObject fragment) {
+        this(SearchState.fromMolecule(fragment), fragment.smiles());
+    }
+
+    SubstructureQuery(SearchState fragment, String smiles) {
+        this.fragment = fragment;
+        this.smiles = smiles;
+        int n = fragment.countAtoms();
+        order = new int[n];
+        anchors = new int[n];
+        int[] positions = new int[n];
+        Arrays.fill(positions, -1);
+        Deque<Integer> queue = new ArrayDeque<>();
+        int next = 0;
+        for (int start = 0; start < n; start++) {
+            if (positions[start] >= 0) continue;
+            positions[start] = next;
+            anchors[next] = -1;
+            order[next++] = start;
+            queue.add(start);
+            while (!queue.isEmpty()) {
+                int atom = queue.poll();
+                for (int neighbour = 0; neighbour < n; neighbour++) {
+                    if (fragment.bondOrder(atom, neighbour) == 0 || positions[neighbour] >= 0) continue;
+                    positions[neighbour] = next;
+                    anchors[next] = positions[atom];
+                    order[next++] = neighbour;
+                    queue.add(neighbour);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return True iff state contains fragment
+     */
+    boolean matches(SearchState state) {
+        return extend(state, false);
+    }
+
+    /**
+     * Necessary condition for a state obtained from given one by increasing bond orders to contain fragment:
+     * atoms of fragment can be mapped to atoms of the same elements, so that bond orders between images do not exceed
+     * orders of bonds of fragment and each image has enough free valence to raise its bonds to mapped neighbours.
+     * @return False if no state obtained from given one contains fragment
+     */
+    boolean canMatch(SearchState state) {
+        return extend(state, true);
+    }
+
+    private boolean extend(SearchState state, boolean partial) {
+        if (fragment.countAtoms() > state.countAtoms()) {
+            return false;
+        }
+        return extend(state, partial, 0, new int[order.length], new boolean[state.countAtoms()]);
+    }
+
+    private boolean extend(SearchState state, boolean partial, int position, int[] mapping, boolean[] used) {
+        if (position == order.length) {
+            return true;
+        }
+        int atom = order[position];
+        // Bond to anchor may be added later in partial state
+        int anchor = anchors[position] >= 0 && !partial ? mapping[anchors[position]] : -1;
+        for (int candidate = 0; candidate < state.countAtoms(); candidate++) {
+            if (used[candidate] || anchor >= 0 && state.bondOrder(anchor, candidate) == 0) continue;
+            if (!compatible(state, partial, atom, candidate, position, mapping)) continue;
+            mapping[position] = candidate;
+            used[candidate] = true;
+            if (extend(state, partial, position + 1, mapping, used)) {
+                return true;
+            }
+            used[candidate] = false;
+        }
+        return false;
+    }
+
+    /**
+     * Check that atom of state can be image of atom of fragment: it has the same element, at least the same
+     * sum of bond orders, and bonds of the same orders to images of already mapped neighbours.
+     * For partial state, bonds to images of neighbours may have lower orders if free valence of atom allows to raise them.
+     */
+    private boolean compatible(SearchState state, boolean partial, int atom, int candidate, int position, int[] mapping) {
+        if (state.element(candidate) != fragment.element(atom)) {
+            return false;
+        }
+        if (!partial && state.freeValence(candidate) > fragment.freeValence(atom)) {
+            return false;
+        }
+        int missing = 0;
+        for (int i = 0; i < position; i++) {
+            int order = fragment.bondOrder(atom, this.order[i]);
+            if (order == 0) continue;
+            int stateOrder = state.bondOrder(candidate, mapping[i]);
+            if (partial ? stateOrder > order : stateOrder != order) {
+                return false;
+            }
+            missing += order - stateOrder;
+        }
+        return missing <= state.freeValence(candidate);
+    }
+
+    @Override
+    public String toString() {
+        return smiles;
+    }
+}
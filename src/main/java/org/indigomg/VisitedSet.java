@@ -0,0 +1,51 @@
+package org.indigomg;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Set of search states already visited by generator.
+ * States are identified by their canonical form, implementations should be thread-safe.
+ */
+public interface VisitedSet {
+
+    /**
+     * Mark state as visited.
+     * @param canonicalForm Canonical form of state
+     * @return True iff state was not visited before
+     */
+    boolean add(String canonicalForm);
+
+    /**
+     * Mark state identified by a packed canonical key (e.g. certificate computed in Java) as visited.
+     * By default key is written as a string of 16 bit chars prefixed with NUL, which never starts canonical smiles,
+     * so keys and smiles can be kept in one set.
+     * @param canonicalKey Canonical key of state
+     * @return True iff state was not visited before
+     */
+    default boolean add(long[] canonicalKey) {
+        char[] chars = new char[1 + canonicalKey.length * 4];
+        for (int i = 0; i < canonicalKey.length; i++) {
+            for (int j = 0; j < 4; j++) {
+                chars[1 + i * 4 + j] = (char) (canonicalKey[i] >>> (16 * j));
+            }
+        }
+        return add(new String(chars));
+    }
+
+    /**
+     * @return Count of visited states
+     */
+    long size();
+
+    /**
+     * Write all visited states in binary form, used for checkpoints.
+     */
+    void writeTo(DataOutput out) throws IOException;
+
+    /**
+     * Add all states written by {@link #writeTo(DataOutput)} of set of the same type.
+     */
+    void readFrom(DataInput in) throws IOException;
+}
@@ -0,0 +1,81 @@
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.indigomg.BatchGenerator;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Tests generation for lists of elemental compositions
+ */
+public class BatchGeneratorTest {
+    private static final String JOBS = "# composition and fragments\n" +
+            "C6H8\n" +
+            "\n" +
+            "C3H4O3\n" +
+            "C2H5N1O2  C(=O)O\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCount() throws IOException {
+        List<BatchGenerator.Job> jobs = BatchGenerator.readJobs(new StringReader(JOBS));
+        Assert.assertEquals(3, jobs.size());
+        Assert.assertEquals("C(=O)O", jobs.get(2).getFragments());
+
+        List<BatchGenerator.Result> results = new BatchGenerator(2).count(jobs);
+        checkCounts(results);
+    }
+
+    @Test
+    public void testOutputs() throws IOException {
+        List<BatchGenerator.Job> jobs = BatchGenerator.readJobs(new StringReader(JOBS));
+        BatchGenerator generator = new BatchGenerator(3);
+
+        File dir = folder.newFolder("out");
+        checkCounts(generator.generateToDirectory(jobs, dir));
+        Assert.assertEquals(159, countRecords(new File(dir, "C6H8.sdf"), "$$$$"));
+        Assert.assertEquals(6, countRecords(new File(dir, "C2H5N1O2.sdf"), "$$$$"));
+
+        File smilesDir = new File(folder.getRoot(), "smiles");
+        checkCounts(generator.generateToDirectory(jobs, smilesDir, ".can"));
+        Assert.assertEquals(152, Files.readAllLines(new File(smilesDir, "C3H4O3.can").toPath(), StandardCharsets.UTF_8).size());
+
+        File file = new File(folder.getRoot(), "all.sdf");
+        checkCounts(generator.generateToFile(jobs, file));
+        Assert.assertEquals(159 + 152 + 6, countRecords(file, "$$$$"));
+        Assert.assertEquals(152, countRecords(file, "C3H4O3"));
+
+        File smiles = new File(folder.getRoot(), "all.smi.gz");
+        checkCounts(generator.generateToFile(jobs, smiles));
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(smiles)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        Assert.assertEquals(159 + 152 + 6, lines.size());
+        Assert.assertEquals(152, lines.stream().filter(line -> line.endsWith(" C3H4O3")).count());
+    }
+
+    private void checkCounts(List<BatchGenerator.Result> results) {
+        Assert.assertEquals(159, results.get(0).getCount());
+        Assert.assertEquals(152, results.get(1).getCount());
+        Assert.assertEquals(6, results.get(2).getCount());
+        for (BatchGenerator.Result result : results) {
+            Assert.assertNull(result.getError());
+        }
+    }
+
+    private long countRecords(File file, String line) throws IOException {
+        return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).stream().filter(line::equals).count();
+    }
+}
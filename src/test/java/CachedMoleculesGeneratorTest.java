@@ -0,0 +1,92 @@
+import com.ggasoftware.indigo.Indigo;
+import com.ggasoftware.indigo.IndigoObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.indigomg.CachedMoleculesGenerator;
+import org.indigomg.FragmentsOverlapException;
+import org.indigomg.MoleculesGenerator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests caching of generated molecules
+ */
+public class CachedMoleculesGeneratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test() throws IOException, FragmentsOverlapException {
+        File dir = folder.newFolder("cache");
+        Indigo indigo = new Indigo();
+        CachedMoleculesGenerator gen = new CachedMoleculesGenerator(new MoleculesGenerator(indigo), dir, 1 << 20, 1 << 20);
+
+        Set<String> generated = smiles(gen.generateMolecules("C6H8", null));
+        Assert.assertEquals(159, generated.size());
+        Assert.assertEquals(1, gen.getMisses());
+
+        // Same composition written in another way is served from memory
+        Assert.assertEquals(generated, smiles(gen.generateMolecules("H8C6", null)));
+        Assert.assertEquals(1, gen.getHits());
+
+        // New generator with the same directory serves result from disk
+        CachedMoleculesGenerator other = new CachedMoleculesGenerator(new MoleculesGenerator(indigo), dir, 1 << 20, 1 << 20);
+        Assert.assertEquals(generated, smiles(other.generateMolecules("C3H4C3H4", null)));
+        Assert.assertEquals(1, other.getHits());
+        Assert.assertEquals(0, other.getMisses());
+
+        Assert.assertEquals(6, gen.generateMolecules("C2H5N1O2", "OC=O").size());
+        Assert.assertEquals(6, other.generateMolecules("O2N1C2H5", "C(O)=O").size());
+        Assert.assertEquals(2, other.getHits());
+    }
+
+    @Test
+    public void testShard() throws IOException, FragmentsOverlapException {
+        File dir = folder.newFolder("shards");
+        MoleculesGenerator sharded = new MoleculesGenerator(new Indigo());
+        sharded.setEngine(MoleculesGenerator.Engine.ORDERLY);
+        sharded.setShard(1, 3);
+        CachedMoleculesGenerator part = new CachedMoleculesGenerator(sharded, dir, 1 << 20, 1 << 20);
+        int partCount = part.generateMolecules("C6H8", null).size();
+        Assert.assertTrue(partCount < 159);
+
+        // Result of shard is not served to unsharded generator sharing the directory
+        CachedMoleculesGenerator all = new CachedMoleculesGenerator(new MoleculesGenerator(new Indigo()), dir, 1 << 20, 1 << 20);
+        Assert.assertEquals(159, all.generateMolecules("C6H8", null).size());
+        Assert.assertEquals(0, all.getHits());
+        Assert.assertEquals(partCount, part.generateMolecules("C6H8", null).size());
+        Assert.assertEquals(1, part.getHits());
+    }
+
+    @Test
+    public void testNormalization() {
+        Assert.assertEquals("C6H8", CachedMoleculesGenerator.normalizeComposition("H8C6"));
+        Assert.assertEquals("C2H5N1O2", CachedMoleculesGenerator.normalizeComposition("O2N1H5C2"));
+        Assert.assertEquals("H2O1S1", CachedMoleculesGenerator.normalizeComposition("S1O1H2"));
+    }
+
+    @Test
+    public void testEviction() throws IOException, FragmentsOverlapException {
+        File dir = folder.newFolder("small");
+        CachedMoleculesGenerator gen = new CachedMoleculesGenerator(new MoleculesGenerator(new Indigo()), dir, 1, 1);
+        gen.generateMolecules("C3H6", null);
+        gen.generateMolecules("C3H6", null);
+        Assert.assertEquals(0, gen.getHits());
+        Assert.assertEquals(0, dir.listFiles().length);
+    }
+
+    private Set<String> smiles(List<IndigoObject> mols) {
+        Set<String> res = new HashSet<>();
+        for (IndigoObject mol : mols) {
+            res.add(mol.canonicalSmiles());
+        }
+        return res;
+    }
+}
@@ -0,0 +1,92 @@
+import com.ggasoftware.indigo.Indigo;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.indigomg.Checkpoint;
+import org.indigomg.FragmentsOverlapException;
+import org.indigomg.MoleculesGenerator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Tests resuming interrupted generation from checkpoint
+ */
+public class CheckpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test() throws IOException, FragmentsOverlapException {
+        checkResume(MoleculesGenerator.Engine.VISITED_SET, "C6H8", null, 159);
+    }
+
+    @Test
+    public void testOrderly() throws IOException, FragmentsOverlapException {
+        checkResume(MoleculesGenerator.Engine.ORDERLY, "C3H4O3", null, 152);
+        checkResume(MoleculesGenerator.Engine.ORDERLY, "C2H5N1O2", "C(=O)O", 6);
+    }
+
+    @Test
+    public void testOtherShard() throws IOException, FragmentsOverlapException {
+        Checkpoint checkpoint = new Checkpoint(folder.newFolder("shard"), 0);
+        MoleculesGenerator gen = new MoleculesGenerator(new Indigo());
+        gen.setShard(1, 3);
+        try {
+            gen.generateMolecules("C6H8", null, mol -> {
+                throw new IllegalStateException("Interrupted");
+            }, checkpoint);
+            Assert.fail("Generation should be interrupted");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(checkpoint.exists());
+        }
+        for (int[] shard : new int[][] {{0, 1}, {2, 3}}) {
+            MoleculesGenerator other = new MoleculesGenerator(new Indigo());
+            other.setShard(shard[0], shard[1]);
+            try {
+                other.generateMolecules("C6H8", null, mol -> { }, checkpoint);
+                Assert.fail("Checkpoint of another shard should be rejected");
+            } catch (IOException e) {
+                Assert.assertTrue(checkpoint.exists());
+            }
+        }
+    }
+
+    private void checkResume(MoleculesGenerator.Engine engine, String ec, String fragments, int expected) throws IOException, FragmentsOverlapException {
+        Indigo indigo = new Indigo();
+        Checkpoint checkpoint = new Checkpoint(folder.newFolder(engine + ec), 0);
+        List<String> out = new ArrayList<>();
+        checkpoint.setOutputPositionSupplier(out::size);
+
+        MoleculesGenerator gen = new MoleculesGenerator(indigo);
+        gen.setEngine(engine);
+        int interruptAfter = expected / 2;
+        try {
+            gen.generateMolecules(ec, fragments, mol -> {
+                if (out.size() == interruptAfter) {
+                    throw new IllegalStateException("Interrupted");
+                }
+                out.add(mol.canonicalSmiles());
+            }, checkpoint);
+            Assert.fail("Generation should be interrupted");
+        } catch (IllegalStateException e) {
+            Assert.assertTrue(checkpoint.exists());
+        }
+
+        long position = checkpoint.getOutputPosition();
+        Assert.assertEquals(position, checkpoint.getMoleculesCount());
+        out.subList((int) position, out.size()).clear();
+
+        MoleculesGenerator resumed = new MoleculesGenerator(indigo);
+        resumed.setEngine(engine);
+        long count = resumed.generateMolecules(ec, fragments, mol -> out.add(mol.canonicalSmiles()), checkpoint);
+        Assert.assertEquals(expected, count);
+        Assert.assertEquals(expected, out.size());
+        Assert.assertEquals(expected, new HashSet<>(out).size());
+        Assert.assertFalse(checkpoint.exists());
+    }
+}
@@ -0,0 +1,57 @@
+import com.ggasoftware.indigo.Indigo;
+import com.ggasoftware.indigo.IndigoObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.indigomg.FragmentsOverlapException;
+import org.indigomg.MoleculesGenerator;
+
+import java.util.*;
+
+/**
+ * Tests generation of several compositions in one pass per heavy-atom skeleton
+ */
+public class CompositionFamilyTest {
+
+    @Test
+    public void testSameAsSeparateRuns() throws FragmentsOverlapException {
+        List<String> compositions = Arrays.asList("C6H8", "C6H10", "C6H12", "C6H14", "C4H6O1", "C4H8O1");
+        for (MoleculesGenerator.Engine engine : MoleculesGenerator.Engine.values()) {
+            MoleculesGenerator gen = new MoleculesGenerator(new Indigo());
+            gen.setEngine(engine);
+            check(gen, compositions, null);
+        }
+        MoleculesGenerator gen = new MoleculesGenerator(new Indigo());
+        gen.setParallelism(4);
+        check(gen, compositions, null);
+        check(new MoleculesGenerator(new Indigo()), Arrays.asList("C4H6O2", "C4H8O2", "C4H4O2"), "C(=O)O");
+    }
+
+    private void check(MoleculesGenerator gen, List<String> compositions, String fragments) throws FragmentsOverlapException {
+        Map<String, List<IndigoObject>> family = gen.generateMolecules(compositions, fragments);
+        Assert.assertEquals(compositions, new ArrayList<>(family.keySet()));
+        for (String composition : compositions) {
+            Assert.assertEquals(composition, smiles(gen.generateMolecules(composition, fragments)), smiles(family.get(composition)));
+        }
+    }
+
+    @Test
+    public void testCounts() throws FragmentsOverlapException {
+        MoleculesGenerator gen = new MoleculesGenerator(new Indigo());
+        Map<String, Long> counts = gen.generateMolecules(Arrays.asList("C6H14", "C6H8", "H8C6", "C6H7"), null, (composition, mol) -> {
+            Assert.assertEquals(composition.equals("C6H14") ? 14 : 8, mol.countImplicitHydrogens());
+        });
+        Assert.assertEquals(Long.valueOf(5), counts.get("C6H14"));
+        Assert.assertEquals(Long.valueOf(159), counts.get("C6H8"));
+        Assert.assertEquals(Long.valueOf(159), counts.get("H8C6"));
+        Assert.assertEquals(Long.valueOf(0), counts.get("C6H7"));
+    }
+
+    private static Set<String> smiles(List<IndigoObject> mols) {
+        Set<String> res = new HashSet<>();
+        for (IndigoObject mol : mols) {
+            res.add(mol.canonicalSmiles());
+        }
+        Assert.assertEquals(mols.size(), res.size());
+        return res;
+    }
+}
@@ -0,0 +1,164 @@
+import com.ggasoftware.indigo.Indigo;
+import com.ggasoftware.indigo.IndigoObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.indigomg.FragmentsOverlapException;
+import org.indigomg.GenerationConstraints;
+import org.indigomg.GenerationStats;
+import org.indigomg.MoleculesGenerator;
+
+import java.util.*;
+
+/**
+ * Tests that constraints checked during generation give the same molecules as filtering of unconstrained output
+ */
+public class ConstraintsTest {
+    private static final String[] COMPOSITIONS = {"C6H8", "C3H4O3", "C2H5N1O2", "C3H3N1O1"};
+    private static final String[] CONSTRAINTS = {
+            "maxBondOrder=2",
+            "forbid(O,O) forbid(N,N) maxBondOrder(C,N)=2",
+            "minRingSize=4",
+            "minRingSize=5 maxRings=1",
+            "maxRings=0",
+            "maxDbe=2 maxBondOrder(C,C)=2"
+    };
+
+    private final Indigo indigo = new Indigo();
+
+    @Test
+    public void testPostFilter() throws FragmentsOverlapException {
+        for (MoleculesGenerator.Engine engine : MoleculesGenerator.Engine.values()) {
+            MoleculesGenerator gen = new MoleculesGenerator(indigo);
+            gen.setEngine(engine);
+            for (String composition : COMPOSITIONS) {
+                gen.setConstraints(null);
+                List<IndigoObject> all = gen.generateMolecules(composition, (String) null);
+                for (String text : CONSTRAINTS) {
+                    GenerationConstraints constraints = GenerationConstraints.parse(text);
+                    Set<String> expected = new HashSet<>();
+                    for (IndigoObject mol : all) {
+                        if (satisfies(mol, text)) {
+                            expected.add(mol.canonicalSmiles());
+                        }
+                    }
+                    gen.setConstraints(constraints);
+                    Set<String> generated = new HashSet<>();
+                    for (IndigoObject mol : gen.generateMolecules(composition, (String) null)) {
+                        generated.add(mol.canonicalSmiles());
+                    }
+                    Assert.assertEquals(engine + " " + composition + " " + text, expected, generated);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPruning() throws FragmentsOverlapException {
+        MoleculesGenerator gen = new MoleculesGenerator(indigo);
+        GenerationStats stats = new GenerationStats();
+        gen.setStats(stats);
+        gen.countMolecules("C6H8", null);
+        long nodes = stats.getNodesExpanded();
+        stats.reset();
+        gen.setConstraints(GenerationConstraints.parse("maxBondOrder=2 minRingSize=5"));
+        gen.countMolecules("C6H8", null);
+        Assert.assertTrue(stats.getNodesExpanded() < nodes / 2);
+
+        Assert.assertEquals("maxBondOrder(O,O)=0 minRingSize=5", GenerationConstraints.parse("forbid(O,O)  minRingSize=5").toString());
+    }
+
+    /**
+     * Check constraints given in the same form as for parsing on generated molecule
+     */
+    private static boolean satisfies(IndigoObject mol, String text) {
+        int n = mol.countAtoms();
+        int[][] orders = new int[n][n];
+        String[] symbols = new String[n];
+        for (IndigoObject atom : mol.iterateAtoms()) {
+            symbols[atom.index()] = atom.symbol();
+        }
+        int orderSum = 0;
+        for (IndigoObject bond : mol.iterateBonds()) {
+            int s = bond.source().index();
+            int d = bond.destination().index();
+            orders[s][d] = orders[d][s] = bond.bondOrder();
+            orderSum += bond.bondOrder();
+        }
+        int rings = mol.countBonds() - n + 1;
+        int dbe = orderSum - n + 1;
+        int smallestRing = Integer.MAX_VALUE;
+        for (int s = 0; s < n; s++) {
+            for (int d = s + 1; d < n; d++) {
+                if (orders[s][d] != 0) {
+                    int path = pathWithoutBond(orders, s, d);
+                    if (path > 0) {
+                        smallestRing = Math.min(smallestRing, path + 1);
+                    }
+                }
+            }
+        }
+        for (String item : text.split(" ")) {
+            String[] parts = item.split("[(),=]+");
+            switch (parts[0]) {
+                case "maxBondOrder":
+                    for (int s = 0; s < n; s++) {
+                        for (int d = 0; d < n; d++) {
+                            boolean pair = parts.length == 2 || symbols[s].equals(parts[1]) && symbols[d].equals(parts[2]);
+                            if (pair && orders[s][d] > Integer.parseInt(parts[parts.length - 1])) {
+                                return false;
+                            }
+                        }
+                    }
+                    break;
+                case "forbid":
+                    for (int s = 0; s < n; s++) {
+                        for (int d = 0; d < n; d++) {
+                            if (orders[s][d] > 0 && symbols[s].equals(parts[1]) && symbols[d].equals(parts[2])) {
+                                return false;
+                            }
+                        }
+                    }
+                    break;
+                case "minRingSize":
+                    if (smallestRing < Integer.parseInt(parts[1])) {
+                        return false;
+                    }
+                    break;
+                case "maxRings":
+                    if (rings > Integer.parseInt(parts[1])) {
+                        return false;
+                    }
+                    break;
+                case "maxDbe":
+                    if (dbe > Integer.parseInt(parts[1])) {
+                        return false;
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException(item);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Length of the shortest path between bonded atoms not using their bond, -1 if there is none
+     */
+    private static int pathWithoutBond(int[][] orders, int s, int d) {
+        int n = orders.length;
+        int[] dist = new int[n];
+        Arrays.fill(dist, -1);
+        Deque<Integer> queue = new ArrayDeque<>();
+        dist[s] = 0;
+        queue.add(s);
+        while (!queue.isEmpty()) {
+            int a = queue.poll();
+            for (int b = 0; b < n; b++) {
+                if (orders[a][b] == 0 || dist[b] >= 0 || a == s && b == d) continue;
+                dist[b] = dist[a] + 1;
+                queue.add(b);
+            }
+        }
+        return dist[d];
+    }
+}
@@ -0,0 +1,82 @@
+import com.ggasoftware.indigo.Indigo;
+import org.junit.Assert;
+import org.junit.Test;
+import org.indigomg.CancellationToken;
+import org.indigomg.FragmentsOverlapException;
+import org.indigomg.GenerationOptions;
+import org.indigomg.GenerationResult;
+import org.indigomg.MoleculesGenerator;
+
+/**
+ * Tests limits and cancellation of generation runs
+ */
+public class GenerationOptionsTest {
+
+    @Test
+    public void testLimits() throws FragmentsOverlapException {
+        MoleculesGenerator gen = new MoleculesGenerator(new Indigo());
+
+        GenerationResult all = gen.generateMolecules("C6H8", null, new GenerationOptions());
+        Assert.assertTrue(all.isComplete());
+        Assert.assertEquals(159, all.getMolecules().size());
+
+        GenerationOptions options = new GenerationOptions();
+        options.setMaxResults(10);
+        GenerationResult partial = gen.generateMolecules("C6H8", null, options);
+        Assert.assertFalse(partial.isComplete());
+        Assert.assertEquals(GenerationResult.StopReason.RESULTS_LIMIT, partial.getStopReason());
+        Assert.assertEquals(10, partial.getMolecules().size());
+
+        // Limit equal to count of all molecules is not reached
+        options.setMaxResults(159);
+        Assert.assertTrue(gen.generateMolecules("C6H8", null, options).isComplete());
+
+        options = new GenerationOptions();
+        options.setMaxNodes(50);
+        partial = gen.generateMolecules("C6H8", null, options);
+        Assert.assertEquals(GenerationResult.StopReason.NODES_LIMIT, partial.getStopReason());
+        Assert.assertTrue(partial.getCount() < 159);
+
+        options = new GenerationOptions();
+        options.setMaxMillis(1);
+        partial = gen.generateMolecules("C7H8", null, mol -> sleep(), options);
+        Assert.assertEquals(GenerationResult.StopReason.TIME_LIMIT, partial.getStopReason());
+
+        gen.setParallelism(4);
+        options = new GenerationOptions();
+        options.setMaxResults(10);
+        partial = gen.generateMolecules("C6H8", null, options);
+        Assert.assertEquals(GenerationResult.StopReason.RESULTS_LIMIT, partial.getStopReason());
+        Assert.assertEquals(10, partial.getMolecules().size());
+    }
+
+    @Test
+    public void testCancellation() throws FragmentsOverlapException {
+        MoleculesGenerator gen = new MoleculesGenerator(new Indigo());
+        CancellationToken token = new CancellationToken();
+        GenerationOptions options = new GenerationOptions();
+        options.setCancellationToken(token);
+        long[] seen = new long[1];
+        GenerationResult result = gen.generateMolecules("C6H8", null, mol -> {
+            if (++seen[0] == 5) {
+                token.cancel();
+            }
+        }, options);
+        Assert.assertFalse(result.isComplete());
+        Assert.assertEquals(GenerationResult.StopReason.CANCELLED, result.getStopReason());
+        Assert.assertEquals(seen[0], result.getCount());
+        Assert.assertTrue(result.getCount() < 159);
+
+        // Token cancelled before start stops run at once
+        result = gen.generateMolecules("C6H8", null, options);
+        Assert.assertEquals(0, result.getCount());
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(5);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+import com.ggasoftware.indigo.Indigo;
+import org.junit.Assert;
+import org.junit.Test;
+import org.indigomg.FragmentsOverlapException;
+import org.indigomg.GenerationStats;
+import org.indigomg.MoleculesGenerator;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Tests counters of generation runs
+ */
+public class GenerationStatsTest {
+
+    @Test
+    public void test() throws Exception, FragmentsOverlapException {
+        MoleculesGenerator gen = new MoleculesGenerator(new Indigo());
+        GenerationStats stats = new GenerationStats();
+        gen.setStats(stats);
+
+        long count = gen.generateMolecules("C6H8", (String) null).size();
+        Assert.assertEquals(count, stats.getAcceptedMolecules());
+        Assert.assertTrue(stats.getNodesExpanded() > count);
+        Assert.assertEquals(stats.getClones(), stats.getCanonicalizations() + stats.getPruned());
+        Assert.assertTrue(stats.getPruned() > 0);
+        // Each processed state except the initial one was added to visited set
+        Assert.assertEquals(stats.getCanonicalizations() - stats.getDuplicates(), stats.getVisitedSetSize());
+        Assert.assertTrue(stats.getMaxDepth() > 0);
+
+        ObjectName name = stats.registerMBean("test");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Assert.assertEquals(count, server.getAttribute(name, "AcceptedMolecules"));
+        server.unregisterMBean(name);
+
+        stats.reset();
+        Assert.assertEquals(0, stats.getNodesExpanded());
+    }
+
+    @Test
+    public void testDisabled() throws FragmentsOverlapException {
+        MoleculesGenerator gen = new MoleculesGenerator(new Indigo());
+        Assert.assertNull(gen.getStats());
+        Assert.assertEquals(159, gen.generateMolecules("C6H8", (String) null).size());
+    }
+}
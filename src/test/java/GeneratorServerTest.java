@@ -0,0 +1,113 @@
+import org.junit.Assert;
+import org.junit.Test;
+import org.indigomg.GenerationConstraints;
+import org.indigomg.GeneratorServer;
+import org.indigomg.MoleculesGenerator;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests serving generation requests given as JSON lines
+ */
+public class GeneratorServerTest {
+
+    @Test
+    public void testSocket() throws Exception {
+        try (GeneratorServer server = new GeneratorServer(2, 1);
+             ServerSocket serverSocket = new ServerSocket(0, 0, InetAddress.getLoopbackAddress())) {
+            Thread listener = new Thread(() -> {
+                try {
+                    server.listen(serverSocket);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            listener.setDaemon(true);
+            listener.start();
+
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort())) {
+                Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                // More requests than workers and places in queue
+                out.write("{\"id\": \"a\", \"formula\": \"C6H8\", \"format\": \"can\"}\n");
+                out.write("{\"id\": \"b\", \"formula\": \"C3H4O3\", \"maxResults\": 10}\n");
+                out.write("{\"id\": \"c\", \"formula\": \"C2H5N1O2\", \"fragments\": [\"C(=O)O\"]}\n");
+                out.write("{\"id\": \"d\", \"formula\": \"C3H6\", \"format\": \"molfile\"}\n");
+                out.flush();
+
+                Map<String, Integer> molecules = new HashMap<>();
+                Map<String, String> done = new HashMap<>();
+                Set<String> canonical = new HashSet<>();
+                while (done.size() < 4) {
+                    String line = in.readLine();
+                    Assert.assertNotNull(line);
+                    String id = line.substring(line.indexOf(":\"") + 2, line.indexOf("\","));
+                    if (line.contains("\"molecule\"")) {
+                        molecules.merge(id, 1, Integer::sum);
+                        if (id.equals("a")) {
+                            canonical.add(line);
+                        }
+                    } else {
+                        done.put(id, line);
+                    }
+                }
+                Assert.assertEquals(159, (int) molecules.get("a"));
+                Assert.assertEquals(159, canonical.size());
+                Assert.assertTrue(done.get("a").contains("\"count\":159,\"complete\":true"));
+                Assert.assertEquals(10, (int) molecules.get("b"));
+                Assert.assertTrue(done.get("b").contains("\"complete\":false,\"stopReason\":\"RESULTS_LIMIT\""));
+                Assert.assertEquals(6, (int) molecules.get("c"));
+                Assert.assertEquals(2, (int) molecules.get("d"));
+            }
+        }
+    }
+
+    @Test
+    public void testStreams() throws IOException {
+        try (GeneratorServer server = new GeneratorServer(1, 4)) {
+            StringWriter out = new StringWriter();
+            server.serve(new StringReader("{\"id\": 1, \"formula\": \"C3H6\"}\n"
+                    + "not json\n"
+                    + "{\"id\": 2}\n"
+                    + "{\"id\": 3, \"formula\": \"C3H6\", \"maxResults\": -1}\n"
+                    + "{\"id\": 4, \"formula\": \"C6H8\", \"maxNodes\": 10}\n"
+                    + "{\"id\": 5, \"formula\": \"C3H6\", \"constraints\": \"maxRings=0\"}\n"), out);
+            String[] lines = out.toString().split("\n");
+            int errors = 0;
+            for (String line : lines) {
+                if (line.contains("\"error\"")) {
+                    errors++;
+                }
+            }
+            Assert.assertEquals(3, errors);
+            Assert.assertTrue(out.toString().contains("{\"id\":\"1\",\"done\":true,\"count\":2,\"complete\":true}"));
+            Assert.assertTrue(out.toString().contains("{\"id\":\"2\",\"error\":\"No formula provided\"}"));
+            Assert.assertTrue(out.toString().contains("\"id\":\"4\",\"done\":true"));
+            Assert.assertTrue(out.toString().contains("NODES_LIMIT"));
+            Assert.assertTrue(out.toString().contains("{\"id\":\"5\",\"done\":true,\"count\":1,\"complete\":true}"));
+        }
+    }
+
+    @Test
+    public void testDefaultConstraints() throws IOException {
+        try (GeneratorServer server = new GeneratorServer(1, 4, ind -> {
+            MoleculesGenerator gen = new MoleculesGenerator(ind);
+            gen.setConstraints(GenerationConstraints.parse("maxRings=0"));
+            return gen;
+        })) {
+            StringWriter out = new StringWriter();
+            server.serve(new StringReader("{\"id\": 1, \"formula\": \"C3H6\"}\n"
+                    + "{\"id\": 2, \"formula\": \"C3H6\", \"constraints\": \"maxDbe=1\"}\n"), out);
+            Assert.assertTrue(out.toString().contains("{\"id\":\"1\",\"done\":true,\"count\":1,\"complete\":true}"));
+            Assert.assertTrue(out.toString().contains("{\"id\":\"2\",\"done\":true,\"count\":2,\"complete\":true}"));
+        }
+    }
+}
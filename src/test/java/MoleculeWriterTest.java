@@ -0,0 +1,73 @@
+import com.ggasoftware.indigo.Indigo;
+import com.ggasoftware.indigo.IndigoObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.indigomg.FragmentsOverlapException;
+import org.indigomg.MoleculeWriter;
+import org.indigomg.MoleculesGenerator;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Tests writing generated molecules in background
+ */
+public class MoleculeWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test() throws IOException, FragmentsOverlapException {
+        Indigo indigo = new Indigo();
+        MoleculesGenerator gen = new MoleculesGenerator(indigo);
+        Set<String> expected = new HashSet<>();
+        for (IndigoObject mol : gen.generateMolecules("C6H8", (String) null)) {
+            expected.add(mol.canonicalSmiles());
+        }
+
+        for (String name : new String[] {"out.can", "out.can.gz", "out.smi.gz"}) {
+            File file = new File(folder.getRoot(), name);
+            try (MoleculeWriter writer = MoleculeWriter.open(file, 16)) {
+                Assert.assertEquals(159, gen.generateMolecules("C6H8", null, writer));
+            }
+            Set<String> written = new HashSet<>();
+            for (String line : readLines(file)) {
+                written.add(indigo.loadMolecule(line).canonicalSmiles());
+            }
+            Assert.assertEquals(expected, written);
+        }
+
+        File sdf = new File(folder.getRoot(), "out.sdf.gz");
+        gen.setParallelism(4);
+        try (MoleculeWriter writer = MoleculeWriter.open(sdf, 16)) {
+            Assert.assertEquals(MoleculeWriter.Format.SDF, writer.getFormat());
+            Assert.assertEquals(159, gen.generateMolecules("C6H8", null, writer));
+            writer.close();
+            Assert.assertEquals(159, writer.getWritten());
+        }
+        Assert.assertEquals(159, readLines(sdf).stream().filter("$$$$"::equals).count());
+    }
+
+    private List<String> readLines(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (file.getName().endsWith(".gz")) {
+            in = new GZIPInputStream(in);
+        }
+        List<String> res = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                res.add(line);
+            }
+        }
+        return res;
+    }
+}
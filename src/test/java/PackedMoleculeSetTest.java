@@ -0,0 +1,61 @@
+import com.ggasoftware.indigo.Indigo;
+import com.ggasoftware.indigo.IndigoObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.indigomg.FragmentsOverlapException;
+import org.indigomg.MoleculesGenerator;
+import org.indigomg.PackedMoleculeSet;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests packed results of generation
+ */
+public class PackedMoleculeSetTest {
+
+    @Test
+    public void testSameMolecules() throws FragmentsOverlapException {
+        check("C6H8", null, 1);
+        check("C6H8", null, 4);
+        check("C5H5N1O2", "C(=O)O", 1);
+    }
+
+    private void check(String formula, String fragments, int parallelism) throws FragmentsOverlapException {
+        MoleculesGenerator gen = new MoleculesGenerator(new Indigo());
+        gen.setParallelism(parallelism);
+        Set<String> expected = new HashSet<>();
+        for (IndigoObject mol : gen.generateMolecules(formula, fragments)) {
+            expected.add(mol.canonicalSmiles());
+        }
+        PackedMoleculeSet packed = gen.generatePackedMolecules(formula, fragments);
+        Assert.assertEquals(expected.size(), packed.size());
+        Set<String> actual = new HashSet<>();
+        for (int i = 0; i < packed.size(); i++) {
+            actual.add(packed.canonicalSmiles(i));
+        }
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testRandomAccess() throws FragmentsOverlapException {
+        MoleculesGenerator gen = new MoleculesGenerator(new Indigo());
+        List<IndigoObject> list = gen.generateMolecules("C6H8", (String) null);
+        PackedMoleculeSet packed = gen.generatePackedMolecules("C6H8", null);
+        Assert.assertEquals(159, packed.size());
+        // Sequential generation gives the same order
+        for (int i = packed.size() - 1; i >= 0; i -= 7) {
+            Assert.assertEquals(list.get(i).canonicalSmiles(), packed.get(i).canonicalSmiles());
+            Assert.assertEquals(packed.canonicalSmiles(i), packed.get(i).canonicalSmiles());
+        }
+        Assert.assertEquals(6, packed.get(42).countAtoms());
+        Assert.assertTrue(packed.getBufferBytes() < 159 * 64);
+        try {
+            packed.get(159);
+            Assert.fail();
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import com.ggasoftware.indigo.Indigo;
+import com.ggasoftware.indigo.IndigoObject;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.indigomg.FragmentsOverlapException;
+import org.indigomg.MoleculeWriter;
+import org.indigomg.MoleculesGenerator;
+import org.indigomg.ShardMerger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Tests splitting generation into shards and merging their outputs
+ */
+public class ShardingTest {
+    private static final int SHARDS = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test() throws FragmentsOverlapException {
+        checkShards(MoleculesGenerator.Engine.VISITED_SET, "C6H8", null, 159);
+        checkShards(MoleculesGenerator.Engine.VISITED_SET, "C2H5N1O2", "C(=O)O", 6);
+    }
+
+    @Test
+    public void testOrderly() throws FragmentsOverlapException {
+        // Orderly search tree is a tree, so shards are disjoint
+        checkBalanced(checkShards(MoleculesGenerator.Engine.ORDERLY, "C6H8", null, 159), 159);
+        checkBalanced(checkShards(MoleculesGenerator.Engine.ORDERLY, "C3H4O3", null, 152), 152);
+        Assert.assertEquals(6, Arrays.stream(checkShards(MoleculesGenerator.Engine.ORDERLY, "C2H5N1O2", "C(=O)O", 6)).sum());
+    }
+
+    /**
+     * Run shards in separate JVMs and merge their outputs
+     */
+    @Test
+    public void testProcesses() throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        String classPath = System.getProperty("java.class.path");
+        List<Process> processes = new ArrayList<>();
+        List<File> outputs = new ArrayList<>();
+        for (int shard = 0; shard < SHARDS; shard++) {
+            File output = new File(folder.getRoot(), "shard" + shard + ".can");
+            outputs.add(output);
+            processes.add(new ProcessBuilder(java, "-cp", classPath, "org.indigomg.IndigoMG",
+                    "-ec", "C6H8", "-shard", shard + "/" + SHARDS, "-o", output.getPath())
+                    .redirectErrorStream(true)
+                    .redirectOutput(new File(folder.getRoot(), "shard" + shard + ".log"))
+                    .start());
+        }
+        for (Process process : processes) {
+            Assert.assertEquals(0, process.waitFor());
+        }
+        // Shards of command line are disjoint
+        long[] sizes = new long[SHARDS];
+        for (int shard = 0; shard < SHARDS; shard++) {
+            sizes[shard] = Files.readAllLines(outputs.get(shard).toPath(), StandardCharsets.UTF_8).size();
+        }
+        checkBalanced(sizes, 159);
+
+        File merged = new File(folder.getRoot(), "merged.can");
+        try (MoleculeWriter writer = MoleculeWriter.open(merged, 16)) {
+            Assert.assertEquals(159, new ShardMerger(new Indigo()).merge(outputs, writer));
+        }
+        Assert.assertEquals(159, new HashSet<>(Files.readAllLines(merged.toPath(), StandardCharsets.UTF_8)).size());
+    }
+
+    /**
+     * @return Count of molecules of each shard
+     */
+    private long[] checkShards(MoleculesGenerator.Engine engine, String ec, String fragments, int expected) throws FragmentsOverlapException {
+        Set<String> union = new HashSet<>();
+        long[] sizes = new long[SHARDS];
+        for (int shard = 0; shard < SHARDS; shard++) {
+            MoleculesGenerator gen = new MoleculesGenerator(new Indigo());
+            gen.setEngine(engine);
+            gen.setShard(shard, SHARDS);
+            List<IndigoObject> mols = gen.generateMolecules(ec, fragments);
+            Assert.assertTrue(mols.size() <= expected);
+            for (IndigoObject mol : mols) {
+                union.add(mol.canonicalSmiles());
+            }
+            sizes[shard] = mols.size();
+        }
+        Assert.assertEquals(expected, union.size());
+        return sizes;
+    }
+
+    /**
+     * Check that shards are disjoint and each of them has at least half of its fair part of molecules
+     */
+    private void checkBalanced(long[] sizes, int expected) {
+        Assert.assertEquals(expected, Arrays.stream(sizes).sum());
+        for (long size : sizes) {
+            Assert.assertTrue("Shard sizes " + Arrays.toString(sizes), size >= expected / SHARDS / 2);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+import com.ggasoftware.indigo.Indigo;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.indigomg.ExactVisitedSet;
+import org.indigomg.FragmentsOverlapException;
+import org.indigomg.HashedVisitedSet;
+import org.indigomg.MappedVisitedSet;
+import org.indigomg.MoleculesGenerator;
+import org.indigomg.VisitedSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Tests visited sets used by generator
+ */
+public class VisitedSetTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testHashedSet() throws IOException {
+        List<VisitedSet> sets = Arrays.asList(new ExactVisitedSet(), new HashedVisitedSet(), new HashedVisitedSet(64, false), new HashedVisitedSet(128, true),
+                new MappedVisitedSet(folder.newFolder("mapped")), new MappedVisitedSet(folder.newFolder("mapped64"), 64));
+        for (VisitedSet set : sets) {
+            // Enough states to make segments grow several times
+            for (int i = 0; i < 100000; i++) {
+                Assert.assertTrue(set.add("C" + i));
+            }
+            for (int i = 0; i < 100000; i++) {
+                Assert.assertFalse(set.add("C" + i));
+            }
+            Assert.assertEquals(100000, set.size());
+            // Packed keys do not clash with strings
+            for (int i = 0; i < 1000; i++) {
+                Assert.assertTrue(set.add(new long[] {i, 'C'}));
+                Assert.assertFalse(set.add(new long[] {i, 'C'}));
+            }
+            Assert.assertEquals(101000, set.size());
+        }
+    }
+
+    @Test
+    public void testGenerationWithDifferentSets() throws IOException, FragmentsOverlapException {
+        MoleculesGenerator gen = new MoleculesGenerator(new Indigo());
+        File mapped = folder.newFolder("generation");
+        List<Supplier<VisitedSet>> factories = Arrays.asList(
+                ExactVisitedSet::new,
+                () -> new HashedVisitedSet(64, false),
+                () -> new HashedVisitedSet(128, true),
+                () -> new MappedVisitedSet(mapped));
+        for (Supplier<VisitedSet> factory : factories) {
+            gen.setVisitedSetFactory(factory);
+            Assert.assertEquals(159, gen.generateMolecules("C6H8", (String) null).size());
+            Assert.assertEquals(152, gen.generateMolecules("C3H4O3", (String) null).size());
+        }
+    }
+}
@@ -44,8 +44,62 @@ public class WithFragmentsTest {
 
     @Test
     public void test() throws FragmentsOverlapException {
+        checkCounts(new MoleculesGenerator(indigo));
+    }
+
+    @Test
+    public void testOrderly() throws FragmentsOverlapException {
+        MoleculesGenerator gen = new MoleculesGenerator(indigo);
+        gen.setEngine(MoleculesGenerator.Engine.ORDERLY);
+        checkCounts(gen);
+    }
+
+    @Test
+    public void testLevels() throws FragmentsOverlapException {
         MoleculesGenerator gen = new MoleculesGenerator(indigo);
+        gen.setEngine(MoleculesGenerator.Engine.LEVELS);
+        checkCounts(gen);
+    }
+
+    @Test
+    public void testOverlapping() throws FragmentsOverlapException {
+        for (MoleculesGenerator.Engine engine : MoleculesGenerator.Engine.values()) {
+            MoleculesGenerator gen = new MoleculesGenerator(indigo);
+            gen.setEngine(engine);
+            checkSubstructures(gen, "C2H5N1O2", "C(=O)O CN");
+            checkSubstructures(gen, "C3H6O2", "C=O CO CC");
+            checkSubstructures(gen, "C4H8", "CCCC");
+        }
+        MoleculesGenerator gen = new MoleculesGenerator(indigo);
+        gen.setParallelism(4);
+        checkSubstructures(gen, "C3H6O2", "C=O CO CC");
+    }
+
+    /**
+     * Check that molecules generated with fragments are the molecules generated without fragments which contain them
+     */
+    private void checkSubstructures(MoleculesGenerator gen, String composition, String fragments) throws FragmentsOverlapException {
+        Set<String> expected = new HashSet<>();
+        for (IndigoObject mol : gen.generateMolecules(composition, (String) null)) {
+            IndigoObject matcher = indigo.substructureMatcher(mol);
+            boolean contains = true;
+            for (String fragment : fragments.split(" ")) {
+                contains &= matcher.match(indigo.loadQueryMolecule(fragment)) != null;
+            }
+            if (contains) {
+                expected.add(mol.canonicalSmiles());
+            }
+        }
+        List<IndigoObject> mols = gen.generateMolecules(composition, fragments);
+        Set<String> actual = new HashSet<>();
+        for (IndigoObject mol : mols) {
+            actual.add(mol.canonicalSmiles());
+        }
+        Assert.assertEquals(composition + " " + fragments, expected, actual);
+        Assert.assertEquals(actual.size(), mols.size());
+    }
 
+    private void checkCounts(MoleculesGenerator gen) throws FragmentsOverlapException {
         for (Map.Entry<CompWithRestrictions, Long> compWithRes : elCompositionsWithExpectedResults.entrySet()) {
             CompWithRestrictions  comp = compWithRes.getKey();
             long expectedCount  = compWithRes.getValue();
@@ -4,6 +4,7 @@ import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.indigomg.FragmentsOverlapException;
+import org.indigomg.MoleculesCount;
 import org.indigomg.MoleculesGenerator;
 
 import java.util.HashMap;
@@ -32,8 +33,68 @@ public class WithoutFragmentsTest {
 
     @Test
     public void test() throws FragmentsOverlapException {
+        checkCounts(new MoleculesGenerator(indigo));
+    }
+
+    @Test
+    public void testParallel() throws FragmentsOverlapException {
+        MoleculesGenerator gen = new MoleculesGenerator(indigo);
+        gen.setParallelism(4);
+        checkCounts(gen);
+    }
+
+    @Test
+    public void testOrderly() throws FragmentsOverlapException {
+        MoleculesGenerator gen = new MoleculesGenerator(indigo);
+        gen.setEngine(MoleculesGenerator.Engine.ORDERLY);
+        checkCounts(gen);
+        gen.setParallelism(4);
+        checkCounts(gen);
+    }
+
+    @Test
+    public void testLevels() throws FragmentsOverlapException {
+        MoleculesGenerator gen = new MoleculesGenerator(indigo);
+        gen.setEngine(MoleculesGenerator.Engine.LEVELS);
+        checkCounts(gen);
+        gen.setParallelism(4);
+        checkCounts(gen);
+    }
+
+    @Test
+    public void testStateKeys() throws FragmentsOverlapException {
+        MoleculesGenerator gen = new MoleculesGenerator(indigo);
+        for (MoleculesGenerator.StateKey key : MoleculesGenerator.StateKey.values()) {
+            gen.setStateKey(key);
+            checkCounts(gen);
+        }
+        // Validation fails if a Java key identifies states with different canonical smiles
+        gen.setStateKey(MoleculesGenerator.StateKey.VALIDATE);
+        gen.setParallelism(4);
+        checkCounts(gen);
+        Assert.assertEquals(19, gen.generateMolecules("C2H6O1S1", (String) null).size());
+    }
+
+    @Test
+    public void testCountOnly() throws FragmentsOverlapException {
         MoleculesGenerator gen = new MoleculesGenerator(indigo);
+        for (Map.Entry<String, Long> compWithRes : elCompositionsWithExpectedResults.entrySet()) {
+            MoleculesCount count = gen.countMolecules(compWithRes.getKey(), null);
+            Assert.assertEquals((long) compWithRes.getValue(), count.getTotal());
+
+            long byRings = 0;
+            for (int rings = 0; rings <= count.getMaxRings(); rings++) {
+                byRings += count.getCountByRings(rings);
+            }
+            Assert.assertEquals(count.getTotal(), byRings);
+        }
+        // Propene and cyclopropane
+        MoleculesCount c3h6 = gen.countMolecules("C3H6", null);
+        Assert.assertEquals(1, c3h6.getCountByRings(1));
+        Assert.assertEquals(1, c3h6.getCountByMaxBondOrder(2));
+    }
 
+    private void checkCounts(MoleculesGenerator gen) throws FragmentsOverlapException {
         for (Map.Entry<String, Long> compWithRes : elCompositionsWithExpectedResults.entrySet()) {
             String  comp = compWithRes.getKey();
             long res  = compWithRes.getValue();
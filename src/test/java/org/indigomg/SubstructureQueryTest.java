@@ -0,0 +1,40 @@
+package org.indigomg;
+
+import com.ggasoftware.indigo.Indigo;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests matching of fragments in complete and partial states of search
+ */
+public class SubstructureQueryTest {
+    private final Indigo indigo = new Indigo();
+
+    @Test
+    public void testMatches() {
+        SubstructureQuery carbonyl = query("C=O");
+        Assert.assertTrue(carbonyl.matches(state("CC=O")));
+        Assert.assertFalse(carbonyl.matches(state("CCO")));
+        Assert.assertFalse(query("CC").matches(state("C=C")));
+    }
+
+    @Test
+    public void testCanMatch() {
+        SubstructureQuery carbonyl = query("C=O");
+        // Bond can be raised to double
+        Assert.assertTrue(carbonyl.canMatch(state("CCO")));
+        // Oxygen has no free valence
+        Assert.assertFalse(carbonyl.canMatch(state("COC")));
+        // Bond orders are never decreased, but another pair can be bonded
+        Assert.assertFalse(query("CC").canMatch(state("C=C")));
+        Assert.assertTrue(query("CC").canMatch(state("C=C.C")));
+    }
+
+    private SubstructureQuery query(String smiles) {
+        return new SubstructureQuery(indigo.loadMolecule(smiles));
+    }
+
+    private SearchState state(String smiles) {
+        return SearchState.fromMolecule(indigo.loadMolecule(smiles));
+    }
+}
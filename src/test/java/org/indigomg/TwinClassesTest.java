@@ -0,0 +1,73 @@
+package org.indigomg;
+
+import com.ggasoftware.indigo.Indigo;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Tests reduction of extensions by twin atoms (in package of generator, as twin classes are not public)
+ */
+public class TwinClassesTest {
+
+    /**
+     * Generator proposing every pair of unsaturated atoms which are not bonded in initial state
+     */
+    private static class AllPairsGenerator extends MoleculesGenerator {
+        AllPairsGenerator(Indigo indigo) {
+            super(indigo);
+        }
+
+        @Override
+        ArrayList<SD> extendMol(SearchState ac, SearchState root) {
+            ArrayList<SD> bondList = new ArrayList<>();
+            for (int s = 0; s < ac.countAtoms(); s++) {
+                for (int d = s + 1; d < ac.countAtoms(); d++) {
+                    if (!ac.isSaturated(s) && !ac.isSaturated(d) && (root == null || root.bondOrder(s, d) == 0)) {
+                        bondList.add(new SD(s, d));
+                    }
+                }
+            }
+            return bondList;
+        }
+    }
+
+    @Test
+    public void testFewerCanonicalizations() throws FragmentsOverlapException {
+        MoleculesGenerator gen = new MoleculesGenerator(new Indigo());
+        GenerationStats stats = new GenerationStats();
+        gen.setStats(stats);
+        Assert.assertEquals(159, gen.generateMolecules("C6H8", (String) null).size());
+
+        MoleculesGenerator allPairs = new AllPairsGenerator(new Indigo());
+        GenerationStats allPairsStats = new GenerationStats();
+        allPairs.setStats(allPairsStats);
+        Assert.assertEquals(159, allPairs.generateMolecules("C6H8", (String) null).size());
+
+        Assert.assertTrue(stats.getCanonicalizations() < allPairsStats.getCanonicalizations());
+    }
+
+    @Test
+    public void testWithoutRoot() {
+        Indigo indigo = new Indigo();
+        // Terminal carbons of propane are twins
+        SearchState state = SearchState.fromMolecule(indigo.loadMolecule("CCC"));
+        Assert.assertArrayEquals(new int[]{0, 1, 0}, state.twinClasses(null));
+        Assert.assertEquals(2, new MoleculesGenerator(indigo).extendMol(state).size());
+    }
+
+    @Test
+    public void testWithFragment() {
+        Indigo indigo = new Indigo();
+        // Bond 0-1 of propane is bond of fragment, bond 1-2 was added during search
+        SearchState root = SearchState.fromMolecule(indigo.loadMolecule("CC.C"));
+        SearchState state = SearchState.fromMolecule(indigo.loadMolecule("CCC"));
+        Assert.assertArrayEquals(new int[]{0, 1, 2}, state.twinClasses(root));
+
+        // Pair 0-1 is bond of fragment, pairs 0-2 and 1-2 are not isomorphic relative to fragment
+        ArrayList<MoleculesGenerator.SD> pairs = new MoleculesGenerator(indigo).extendMol(state, root);
+        Assert.assertEquals(Arrays.asList(new MoleculesGenerator.SD(0, 2), new MoleculesGenerator.SD(1, 2)), pairs);
+    }
+}